@@ -3,9 +3,21 @@ import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.awt.Stroke;
 import java.io.File;
-import java.io.IOException;
-import java.util.Random;
-import javax.imageio.ImageIO;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 
 import ekobadd.geometry.*;
 
@@ -19,93 +31,370 @@ class ApolloniusGrain {
 	ApolloniusGrain contributor_a;
 	ApolloniusGrain contributor_b;
 	
-	Circle circle;
 	int datum;
 	int depth;
 	
+	// Hash of the path from the root down to this grain. See rootPathHash().
+	long path_hash;
+	
 	ApolloniusGrain child_a;
 	ApolloniusGrain child_b;
 	ApolloniusGrain child_c;
 	
-	public ApolloniusGrain(ApolloniusGrain parent, ApolloniusGrain contributor_a, ApolloniusGrain contributor_b, Random random) {
+	// The tree's frame of reference, shared by all of its grains. See renormalize().
+	final ReferenceFrame frame;
+	
+	// Statistics on each layer of the tree, also shared by all of its grains. See getStats().
+	final LayerStats layers;
+	
+	// Where this grain lies relative to its parent: the offset of its origin from the parent's, and its radius, both in the tree's original units.
+	// Scaffolding has no parent, and holds its origin and radius in the current frame of reference instead. Either way, they only change when the grain becomes scaffolding, or in renormalize().
+	private double local_x;
+	private double local_y;
+	private double local_radius;
+	
+	// The circle and dart bounds in some version of the frame of reference. Until the frame changes, these are exactly as they were calculated when the grain was created.
+	// Afterwards, they are resolved again from the local position the first time they are needed. See circle().
+	private Placement placement;
+	
+	// Set by the thread which takes on calculating this grain's children in expandConcurrently().
+	private boolean expansion_claimed;
+	
+	// The solver used to find the circles of new grains.
+	static ChildSolver solver = ChildSolver.APOLLONIUS;
+	
+	// How many levels below the starting grain the parallel calculateChildrenTo*() methods fork a task for each subtree. Below that, each task generates its subtree on its own thread.
+	// Each level triples the number of tasks, so 4 levels make up to 81: enough to keep several threads busy though the subtrees vary widely in size, without too many tasks for small trees.
+	static final int PARALLEL_LEVELS = 4;
+	
+	private static final VarHandle CHILD_A;
+	private static final VarHandle EXPANSION_CLAIMED;
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			CHILD_A = lookup.findVarHandle(ApolloniusGrain.class, "child_a", ApolloniusGrain.class);
+			EXPANSION_CLAIMED = lookup.findVarHandle(ApolloniusGrain.class, "expansion_claimed", boolean.class);
+		}
+		catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	
+	// The child index is which of its parent's three children the grain is, from 0 for child_a to 2 for child_c. Together with the parent's path hash, it decides the datum.
+	public ApolloniusGrain(ApolloniusGrain parent, ApolloniusGrain contributor_a, ApolloniusGrain contributor_b, int child_index) {
+		this(parent, contributor_a, contributor_b, null, child_index);
+	}
+	
+	// The opposite is the other grain tangent to the parent and both contributors, if known. It is passed on to the solver.
+	public ApolloniusGrain(ApolloniusGrain parent, ApolloniusGrain contributor_a, ApolloniusGrain contributor_b, ApolloniusGrain opposite, int child_index) {
 		this.parent = parent;
 		this.contributor_a = contributor_a;
 		this.contributor_b = contributor_b;
+		this.frame = parent.frame;
+		this.layers = parent.layers;
 		
-		this.circle = Apollonius.getSmallerSolutionCircle(parent.circle, contributor_a.circle, contributor_b.circle);
-		if (this.circle == null)
+		Circle circle = solver.solve(parent.circle(), contributor_a.circle(), contributor_b.circle(), opposite == null ? null : opposite.circle());
+		if (circle == null)
 			throw new Error("There must be a solution."); // TODO: Could be handled more gracefully...
 		
 		this.child_a = null;
 		this.child_b = null;
 		this.child_c = null;
 		
-		this.datum = random.nextInt();
+		this.path_hash = childPathHash(parent.path_hash, child_index);
+		this.datum = datumOf(path_hash);
 		this.depth = parent.depth + 1;
+		
+		this.placement = new Placement(circle, calculateDartBounds(), frame.version);
+		placeRelativeToParent();
 	}
 	
 	// Constructs the "parents" of the root. Unlike actual nodes, they have only one child: The real root.
 	// Such grains are called scaffolding. Three are needed to find the root.
-	public ApolloniusGrain(Circle circle, Random random) {
-		this.circle = circle;
+	public ApolloniusGrain(Circle circle, ReferenceFrame frame, LayerStats layers, long path_hash) {
+		this.frame = frame;
+		this.layers = layers;
+		this.placement = new Placement(circle, null, frame.version);
+		anchor();
 		
-		this.datum = random.nextInt();
+		this.path_hash = path_hash;
+		this.datum = datumOf(path_hash);
 		this.depth = -1;
 	}
 	
-	// Constructs the root.
-	public ApolloniusGrain(Circle A, Circle B, Circle C, Random random) {
-		this.parent = new ApolloniusGrain(A, random);
-		this.contributor_a = new ApolloniusGrain(B, random);
-		this.contributor_b = new ApolloniusGrain(C, random);
+	// Constructs the root. The seed decides the data of every grain in the tree.
+	public ApolloniusGrain(Circle A, Circle B, Circle C, long seed) {
+		this.frame = new ReferenceFrame();
+		this.layers = new LayerStats();
 		
-		this.circle = Apollonius.getSmallerSolutionCircle(A, B, C);
-		if (this.circle == null)
+		this.parent = new ApolloniusGrain(A, frame, layers, scaffoldPathHash(seed, 0));
+		this.contributor_a = new ApolloniusGrain(B, frame, layers, scaffoldPathHash(seed, 1));
+		this.contributor_b = new ApolloniusGrain(C, frame, layers, scaffoldPathHash(seed, 2));
+		
+		Circle circle = solver.solve(A, B, C, null);
+		if (circle == null)
 			throw new Error("There must be a solution."); // TODO: Could be handled more gracefully...
 		
 		this.child_a = null;
 		this.child_b = null;
 		this.child_c = null;
 		
-		this.datum = random.nextInt();
+		this.path_hash = rootPathHash(seed);
+		this.datum = datumOf(path_hash);
 		this.depth = 0;
+		
+		this.placement = new Placement(circle, calculateDartBounds(), frame.version);
+		placeRelativeToParent();
+		
+		layers.add(depth, local_radius);
+	}
+	
+	// Grains are identified by their path down from the root, hashed along with the tree's seed, and take their datum from the hash.
+	// A grain's datum therefore depends only on where it is in the tree, not on the order in which grains were generated, nor on which thread generated them.
+	// Each step mixes in the child index with the SplitMix64 finalizer.
+	static long rootPathHash(long seed) {
+		return mix(seed);
+	}
+	
+	static long scaffoldPathHash(long seed, int scaffold_index) {
+		return childPathHash(~rootPathHash(seed), scaffold_index);
+	}
+	
+	static long childPathHash(long parent_path_hash, int child_index) {
+		return mix(parent_path_hash + (child_index + 1) * 0x9E3779B97F4A7C15L);
+	}
+	
+	static int datumOf(long path_hash) {
+		return (int) (path_hash >>> 32);
+	}
+	
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
 	}
 	
 	// Calculates children based on self, parent, and contributors.
-	// Pass a random number generator to generate the datum.
-	public void calculateChildren(Random random) {
-		this.child_a = new ApolloniusGrain(this, this.parent, this.contributor_a, random);
-		this.child_b = new ApolloniusGrain(this, this.parent, this.contributor_b, random);
-		this.child_c = new ApolloniusGrain(this, this.contributor_a, this.contributor_b, random);
+	// This grain, its parent and its contributors are all mutually tangent, so whichever of the four a child is not made from is the child's opposite.
+	public void calculateChildren() {
+		LayerStats.Tally added = new LayerStats.Tally();
+		calculateChildren(added);
+		layers.merge(added);
+	}
+	
+	// Same as calculateChildren(), but records the children in the passed tally rather than in the tree's statistics.
+	private void calculateChildren(LayerStats.Tally added) {
+		this.child_a = new ApolloniusGrain(this, this.parent, this.contributor_a, this.contributor_b, 0);
+		this.child_b = new ApolloniusGrain(this, this.parent, this.contributor_b, this.contributor_a, 1);
+		this.child_c = new ApolloniusGrain(this, this.contributor_a, this.contributor_b, this.parent, 2);
+		
+		recordChildren(added);
+	}
+	
+	// Same as calculateChildren(), but safe to call from several threads at once, such as while rendering. Does nothing if the children already exist.
+	// The first thread to arrive claims the grain with a compare-and-set and calculates all three children. The others wait for them rather than calculating them again.
+	// The children are published by a release-store of child_a, after child_b and child_c have been set. Readers must check for them with areChildrenPublished() before reading any of the three.
+	// Should the claiming thread fail to calculate the children, it releases its claim before rethrowing. A waiting thread then claims the grain and tries again itself, so it fails the same way rather than waiting forever.
+	// The children are recorded in the passed tally, which the caller must merge into the tree's statistics once it is done expanding. See LayerStats.merge().
+	public void expandConcurrently(LayerStats.Tally added) {
+		while (!areChildrenPublished()) {
+			if (EXPANSION_CLAIMED.compareAndSet(this, false, true)) {
+				ApolloniusGrain new_child_a;
+				try {
+					new_child_a = new ApolloniusGrain(this, this.parent, this.contributor_a, this.contributor_b, 0);
+					this.child_b = new ApolloniusGrain(this, this.parent, this.contributor_b, this.contributor_a, 1);
+					this.child_c = new ApolloniusGrain(this, this.contributor_a, this.contributor_b, this.parent, 2);
+				}
+				catch (Throwable e) {
+					this.child_b = null;
+					this.child_c = null;
+					EXPANSION_CLAIMED.setRelease(this, false);
+					throw e;
+				}
+				
+				CHILD_A.setRelease(this, new_child_a);
+				recordChildren(added);
+				return;
+			}
+			
+			// The claiming thread has only three circles to solve, so this wait is brief.
+			Thread.onSpinWait();
+		}
+	}
+	
+	// Whether this grain has children, in a manner safe against expandConcurrently() running on another thread.
+	// If true, all three children are fully constructed and visible to the calling thread.
+	public boolean areChildrenPublished() {
+		return CHILD_A.getAcquire(this) != null;
+	}
+	
+	public void calculateChildrenToDepth(int depth) {
+		generate(this, depth, 0, null, (grain, remaining_depth, detached, next, added) -> grain.stepToDepth(remaining_depth, next, added));
+	}
+	
+	// Same as calculateChildrenToDepth(int), but generates subtrees in parallel on the passed pool. See PARALLEL_LEVELS.
+	public void calculateChildrenToDepth(int depth, ForkJoinPool pool) {
+		pool.invoke(ForkJoinTask.adapt(() -> generate(this, depth, PARALLEL_LEVELS, null, (grain, remaining_depth, detached, next, added) -> grain.stepToDepth(remaining_depth, next, added))));
+	}
+	
+	// Recursively generate children until all leaf grains have no greater diameter than the passed threshold.
+	public void calculateChildrenToGranularity(double min_diameter) {
+		generate(this, 0, 0, null, (grain, value, detached, next, added) -> grain.stepToGranularity(min_diameter, next, added));
+	}
+	
+	// Same as calculateChildrenToGranularity(double), but generates subtrees in parallel on the passed pool. See PARALLEL_LEVELS.
+	public void calculateChildrenToGranularity(double min_diameter, ForkJoinPool pool) {
+		pool.invoke(ForkJoinTask.adapt(() -> generate(this, 0, PARALLEL_LEVELS, null, (grain, value, detached, next, added) -> grain.stepToGranularity(min_diameter, next, added))));
+	}
+	
+	// Same as calculateChildrenToGranularity(), but never expands a child whose dart does not intersect the passed viewport.
+	// Such children are still created, since their siblings need to be, but they remain leaves. The rest of their subtree could never appear in a render of the viewport.
+	// This generates the same tree that calculateChildrenToGranularity() followed by pruneByExcision() would, but without generating what the excision would then throw away.
+	public void calculateChildrenToGranularity(double min_diameter, SgndAlgndRectangle viewport) {
+		generate(this, 0, 0, null, (grain, value, detached, next, added) -> grain.stepToGranularity(min_diameter, viewport, next, added));
 	}
 	
-	// Pass a random number generator to generate the datum.
-	public void calculateChildrenToDepth(int depth, Random random) {
+	// Same as calculateChildrenToGranularity(double, SgndAlgndRectangle), but generates subtrees in parallel on the passed pool. See PARALLEL_LEVELS.
+	public void calculateChildrenToGranularity(double min_diameter, SgndAlgndRectangle viewport, ForkJoinPool pool) {
+		pool.invoke(ForkJoinTask.adapt(() -> generate(this, 0, PARALLEL_LEVELS, null, (grain, value, detached, next, added) -> grain.stepToGranularity(min_diameter, viewport, next, added))));
+	}
+	
+	// Same as calculateChildrenToGranularity(min_diameter, viewport), except that no new children are attached to their parents yet.
+	// Instead, for each grain given children, the grain and its three new children are appended to the passed list, to be attached later by attachChildren().
+	// Until then, the tree as seen from the root is unchanged, so it can be read by other threads, such as renderers, while this runs.
+	public void calculateChildrenToGranularityDetached(double min_diameter, SgndAlgndRectangle viewport, List<ApolloniusGrain> detached) {
+		generate(this, 0, 0, detached, (grain, value, grain_detached, next, added) -> grain.stepToGranularityDetached(min_diameter, viewport, grain_detached, next));
+	}
+	
+	// Same as calculateChildrenToGranularityDetached(double, SgndAlgndRectangle, List), but generates subtrees in parallel on the passed pool. See PARALLEL_LEVELS.
+	// The grains are appended to the list in the same order either way.
+	public void calculateChildrenToGranularityDetached(double min_diameter, SgndAlgndRectangle viewport, List<ApolloniusGrain> detached, ForkJoinPool pool) {
+		pool.invoke(ForkJoinTask.adapt(() -> generate(this, 0, PARALLEL_LEVELS, detached, (grain, value, grain_detached, next, added) -> grain.stepToGranularityDetached(min_diameter, viewport, grain_detached, next))));
+	}
+	
+	// The steps of the calculateChildrenTo*() methods. Each expands this grain as needed, then pushes whichever of its children must be visited in turn onto next, in reverse order so that they are popped in order.
+	private void stepToDepth(int depth, GrainStack next, LayerStats.Tally added) {
 		if (depth == 0) return;
 		
 		if (this.isLeaf()) {
-			this.calculateChildren(random);
+			this.calculateChildren(added);
 		}
 		
-		this.child_a.calculateChildrenToDepth(depth-1, random);
-		this.child_b.calculateChildrenToDepth(depth-1, random);
-		this.child_c.calculateChildrenToDepth(depth-1, random);
+		next.push(this.child_c, depth-1);
+		next.push(this.child_b, depth-1);
+		next.push(this.child_a, depth-1);
 	}
 	
-	// Recursively generate children until all leaf grains have no greater diameter than the passed threshold.
-	// Pass a random number generator to generate the datum.
-	public void calculateChildrenToGranularity(double min_diameter, Random random) {
+	private void stepToGranularity(double min_diameter, GrainStack next, LayerStats.Tally added) {
+		if (this.isLeaf()) {
+			this.calculateChildren(added);
+		}
+		
+		if (diameter() > min_diameter) {
+			next.push(this.child_c, 0);
+			next.push(this.child_b, 0);
+			next.push(this.child_a, 0);
+		}
+	}
+	
+	private void stepToGranularity(double min_diameter, SgndAlgndRectangle viewport, GrainStack next, LayerStats.Tally added) {
 		if (this.isLeaf()) {
-			this.calculateChildren(random);
+			this.calculateChildren(added);
 		}
 		
 		if (diameter() > min_diameter) {
-			this.child_a.calculateChildrenToGranularity(min_diameter, random);
-			this.child_b.calculateChildrenToGranularity(min_diameter, random);
-			this.child_c.calculateChildrenToGranularity(min_diameter, random);
+			if (this.child_c.getDartBounds().intersects(viewport)) next.push(this.child_c, 0);
+			if (this.child_b.getDartBounds().intersects(viewport)) next.push(this.child_b, 0);
+			if (this.child_a.getDartBounds().intersects(viewport)) next.push(this.child_a, 0);
 		}
 	}
 	
+	private void stepToGranularityDetached(double min_diameter, SgndAlgndRectangle viewport, List<ApolloniusGrain> detached, GrainStack next) {
+		ApolloniusGrain new_child_a = this.child_a;
+		ApolloniusGrain new_child_b = this.child_b;
+		ApolloniusGrain new_child_c = this.child_c;
+		
+		if (this.isLeaf()) {
+			new_child_a = new ApolloniusGrain(this, this.parent, this.contributor_a, this.contributor_b, 0);
+			new_child_b = new ApolloniusGrain(this, this.parent, this.contributor_b, this.contributor_a, 1);
+			new_child_c = new ApolloniusGrain(this, this.contributor_a, this.contributor_b, this.parent, 2);
+			
+			detached.add(this);
+			detached.add(new_child_a);
+			detached.add(new_child_b);
+			detached.add(new_child_c);
+		}
+		
+		if (diameter() > min_diameter) {
+			if (new_child_c.getDartBounds().intersects(viewport)) next.push(new_child_c, 0);
+			if (new_child_b.getDartBounds().intersects(viewport)) next.push(new_child_b, 0);
+			if (new_child_a.getDartBounds().intersects(viewport)) next.push(new_child_a, 0);
+		}
+	}
+	
+	// Visits the passed grain and every grain the step pushes, depth first and in order, starting from the passed value. Any grains the step detaches go to the passed list.
+	// For the first parallel_levels levels, each grain pushed is visited by its own fork-join task, which collects detached grains into a list of its own. The lists are appended to the passed one in order once all tasks are done.
+	// Below that, the grains are visited one after another on the calling thread, using its stack rather than recursion, which could overflow in the deep, narrow branches near points of tangency.
+	// Subtrees never share grains that are still being changed, and each grain's datum depends only on its path, so the tree comes out the same either way.
+	private static void generate(ApolloniusGrain grain, int value, int parallel_levels, List<ApolloniusGrain> detached, GenerationStep step) {
+		// Each task tallies the grains it attaches, and takes the statistics' lock only to merge them in once it is done.
+		LayerStats.Tally added = new LayerStats.Tally();
+		
+		if (parallel_levels <= 0) {
+			GrainStack stack = GrainStack.get();
+			int base = stack.size;
+			
+			stack.push(grain, value);
+			while (stack.size > base) {
+				ApolloniusGrain next = stack.pop();
+				step.step(next, stack.value(), detached, stack, added);
+			}
+			
+			grain.layers.merge(added);
+			return;
+		}
+		
+		GrainStack children = new GrainStack();
+		step.step(grain, value, detached, children, added);
+		grain.layers.merge(added);
+		
+		ArrayList<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		ArrayList<List<ApolloniusGrain>> task_detached = new ArrayList<List<ApolloniusGrain>>();
+		while (children.size > 0) {
+			ApolloniusGrain child = children.pop();
+			int child_value = children.value();
+			
+			List<ApolloniusGrain> child_detached = detached == null ? null : new ArrayList<ApolloniusGrain>();
+			task_detached.add(child_detached);
+			tasks.add(ForkJoinTask.adapt(() -> generate(child, child_value, parallel_levels-1, child_detached, step)));
+		}
+		
+		ForkJoinTask.invokeAll(tasks);
+		
+		if (detached != null) {
+			for (List<ApolloniusGrain> child_detached : task_detached) {
+				detached.addAll(child_detached);
+			}
+		}
+	}
+	
+	// Attaches the children found by calculateChildrenToGranularityDetached(). Afterwards, the tree is the same as calculateChildrenToGranularity() would have made it.
+	public static void attachChildren(List<ApolloniusGrain> detached) {
+		if (detached.isEmpty()) return;
+		
+		LayerStats.Tally added = new LayerStats.Tally();
+		for (int i = 0; i < detached.size(); i += 4) {
+			ApolloniusGrain grain = detached.get(i);
+			grain.child_a = detached.get(i + 1);
+			grain.child_b = detached.get(i + 2);
+			grain.child_c = detached.get(i + 3);
+			
+			grain.recordChildren(added);
+		}
+		
+		detached.get(0).layers.merge(added);
+	}
+	
 	// Returns the depth level at which the passed point is contained by the fractal generated so far.
 	// That is, by one of the circles. This metric is used in coloring.
 	// If the point is not contained, returns the max depth plus one.
@@ -117,20 +406,214 @@ class ApolloniusGrain {
 			if (contributor_b.contains(p)) return contributor_b;
 		}
 		
-		return getContainmentCircleRecurse(p, 1, do_debug);
+		return descend(p);
+	}
+	
+	// Same as getContainmentCircle(Point, boolean), carried out in double-double arithmetic. The tree must be made of circles in double-double mode.
+	// Used for frames too small for the sample positions to be told apart as doubles.
+	public ApolloniusGrain getContainmentCircle(DoubleDouble px, DoubleDouble py) {
+		if (isRoot()) {
+			if (parent.circle().contains(px, py)       ) return parent;
+			if (contributor_a.circle().contains(px, py)) return contributor_a;
+			if (contributor_b.circle().contains(px, py)) return contributor_b;
+		}
+		
+		ApolloniusGrain grain = this;
+		while (true) {
+			if (grain.circle().contains(px, py)) {
+				return grain;
+			}
+			
+			if (grain.isLeaf()) {
+				return null;
+			}
+			
+			if (grain.child_a.getDartBounds().contains(px, py)) grain = grain.child_a;
+			else if (grain.child_b.getDartBounds().contains(px, py)) grain = grain.child_b;
+			else if (grain.child_c.getDartBounds().contains(px, py)) grain = grain.child_c;
+			else return null;
+		}
+	}
+	
+	// Same as getContainmentCircle(), but resumes from where the previous query with the same hint left off instead of starting at the root.
+	// Must be called on the root. Walks up from the hinted grain only until reaching one whose dart bounds contain the point, then descends as usual.
+	// Sibling darts only share boundaries, so the result is the same as getContainmentCircle() for any point not lying exactly on the edge of a dart.
+	// If the hint has expansion set, leaves are expanded as the search reaches them, exactly as far as calculateChildrenToGranularity(hint.expand_diameter) would have.
+	// Only the parts of the tree that queries actually pass through are generated. Any number of threads may query and expand the same tree at once, each with its own hint.
+	public ApolloniusGrain getContainmentCircle(Point p, ContainmentHint hint) {
+		hint.queries++;
+		
+		// Hints are only valid within the tree they were obtained from.
+		if (hint.root != this) {
+			hint.root = this;
+			hint.grain = this;
+			hint.result = null;
+		}
+		
+		// Circles never overlap, and a circle lies within the darts of all of its ancestors. So, a circle containing the point must be the one a search from the root would find.
+		if (hint.result != null && hint.result.contains(p)) {
+			return hint.result;
+		}
+		
+		// Ascend until the point is within the dart of the current grain. The root's dart is never tested by getContainmentCircle(), so it is not tested here either.
+		ApolloniusGrain start = hint.grain;
+		while (start != this) {
+			hint.triangle_tests++;
+			if (start.getDartBounds().contains(p)) break;
+			
+			start = start.parent;
+		}
+		
+		if (start == this) {
+			if (parent.contains(p)       ) return hint.result = parent;
+			if (contributor_a.contains(p)) return hint.result = contributor_a;
+			if (contributor_b.contains(p)) return hint.result = contributor_b;
+		}
+		else {
+			// A dart overlaps only the three circles it lies between, all of which are either ancestors or scaffolding.
+			// None of the other ancestors the search skipped over can contain the point.
+			if (start.parent.contains(p)       ) return hint.result = start.parent;
+			if (start.contributor_a.contains(p)) return hint.result = start.contributor_a;
+			if (start.contributor_b.contains(p)) return hint.result = start.contributor_b;
+		}
+		
+		// Descend exactly as descend() would, remembering the deepest grain whose dart contains the point.
+		ApolloniusGrain grain = start;
+		while (true) {
+			hint.grain = grain;
+			
+			if (grain.circle().contains(p)) {
+				return hint.result = grain;
+			}
+			
+			if (!grain.areChildrenPublished()) {
+				// calculateChildrenToGranularity() expands the grain it is called on and every grain whose parent is larger than the threshold.
+				if (!hint.expand || (grain != this && grain.parent.diameter() <= hint.expand_diameter)) {
+					return hint.result = null;
+				}
+				
+				grain.expandConcurrently(hint.added);
+			}
+			
+			hint.triangle_tests++;
+			if (grain.child_a.getDartBounds().contains(p)) {
+				grain = grain.child_a;
+				continue;
+			}
+			
+			hint.triangle_tests++;
+			if (grain.child_b.getDartBounds().contains(p)) {
+				grain = grain.child_b;
+				continue;
+			}
+			
+			hint.triangle_tests++;
+			if (grain.child_c.getDartBounds().contains(p)) {
+				grain = grain.child_c;
+				continue;
+			}
+			
+			return hint.result = null;
+		}
+	}
+	
+	// This grain's circle, in the tree's current frame of reference.
+	public Circle circle() {
+		Placement current = placement;
+		if (current.version != frame.version) current = resolve();
+		
+		return current.circle;
 	}
 	
 	// This function assumes that the parent circles of this grain are tangent to each other.
 	// In that case, this grain and all its children are contained in the triangle whose vertices are the points of tangency.
-	public Triangle getDartBounds() {
+	public PreparedTriangle getDartBounds() {
+		Placement current = placement;
+		if (current.version != frame.version) current = resolve();
+		
+		return current.dart_bounds;
+	}
+	
+	// Brings the placements of this grain, and of every ancestor of it which needs it, into the current frame of reference. Returns this grain's new placement.
+	// Any number of threads may resolve the same grains at once, such as while rendering. They all calculate the same placements, which are immutable, and so safely published by a plain write.
+	private Placement resolve() {
+		int version = frame.version;
+		
+		// Each grain is placed relative to its parent, so the ancestors are resolved first. Contributors are ancestors or scaffolding, so they are resolved by the time any dart is.
+		// This may be called in the middle of a walk using the same stack, so the stale grains are pushed above whatever it holds, and all popped again before returning.
+		GrainStack stale = GrainStack.get();
+		int walk_size = stale.size;
+		for (ApolloniusGrain grain = this; grain != null && grain.placement.version != version; grain = grain.parent) {
+			stale.push(grain, 0);
+		}
+		
+		while (stale.size > walk_size) {
+			ApolloniusGrain grain = stale.pop();
+			
+			if (grain.isScaffold()) {
+				grain.placement = new Placement(new Circle(new Point(grain.local_x, grain.local_y), grain.local_radius), null, version);
+			}
+			else {
+				Point parent_origin = grain.parent.circle().origin;
+				Circle circle = new Circle(
+					new Point(parent_origin.x + grain.local_x * frame.scale, parent_origin.y + grain.local_y * frame.scale),
+					grain.local_radius * frame.scale
+				);
+				
+				grain.placement = new Placement(circle, grain.calculateDartBounds(), version);
+			}
+		}
+		
+		return placement;
+	}
+	
+	// Records where this grain lies relative to its parent, from its circle in the current frame of reference.
+	// The frame's scale is a power of two, so dividing by it loses nothing.
+	private void placeRelativeToParent() {
+		Circle circle = circle();
+		Circle parent_circle = parent.circle();
+		
+		local_x = (circle.origin.x - parent_circle.origin.x) / frame.scale;
+		local_y = (circle.origin.y - parent_circle.origin.y) / frame.scale;
+		local_radius = circle.radius / frame.scale;
+	}
+	
+	// Records this grain's circle in the current frame of reference as its position, as scaffolding does, so that it no longer depends on its parent.
+	private void anchor() {
+		Circle current = circle();
+		
+		local_x = current.origin.x;
+		local_y = current.origin.y;
+		local_radius = current.radius;
+	}
+	
+	// Depends only on the circles around the grain, which are its ancestors or scaffolding.
+	private PreparedTriangle calculateDartBounds() {
+		if (parent.circle().isPrecise()) {
+			DoubleDouble[] t1 = getPreciseTangency(parent.circle(), contributor_a.circle());
+			DoubleDouble[] t2 = getPreciseTangency(parent.circle(), contributor_b.circle());
+			DoubleDouble[] t3 = getPreciseTangency(contributor_a.circle(), contributor_b.circle());
+			
+			return new PreparedTriangle(t1[0], t1[1], t2[0], t2[1], t3[0], t3[1]);
+		}
+		
 		// For each pair of circles, translate one origin in the direction of the other circle out to its radius, at the point of tangency.
-		return new Triangle(
+		return new PreparedTriangle(
 			parent.origin().translated(Point.difference(contributor_a.origin(), parent.origin()).normalized(parent.radius())),
 			parent.origin().translated(Point.difference(contributor_b.origin(), parent.origin()).normalized(parent.radius())),
 			contributor_a.origin().translated(Point.difference(contributor_b.origin(), contributor_a.origin()).normalized(contributor_a.radius()))
 		);
 	}
 	
+	// The point where the first circle touches the second, as in calculateDartBounds(), for circles in double-double mode.
+	private static DoubleDouble[] getPreciseTangency(Circle from, Circle towards) {
+		DoubleDouble dx = towards.precise_x.subtract(from.precise_x);
+		DoubleDouble dy = towards.precise_y.subtract(from.precise_y);
+		DoubleDouble scale = from.precise_radius.divide(dx.square().add(dy.square()).sqrt());
+		
+		return new DoubleDouble[] {dx.multiply(scale).add(from.precise_x), dy.multiply(scale).add(from.precise_y)};
+	}
+	
 	// Deletes portions of the fractal which would not appear on a render of the passed rectangle.
 	// Returns a grain which should be taken as the new root of the fractal.
 	// Its parent, contributors, and all descendents remaibn. All other circles are disconnected in such a manor as to allow garbage collection.
@@ -177,221 +660,223 @@ class ApolloniusGrain {
 			}
 			
 			// At this point, there are either 0 or 1 intersecting child gaps.
+			ApolloniusGrain passed = root;
 			if (child_a_intersects) root = root.child_a;
 			else if (child_b_intersects) root = root.child_b;
 			else if (child_c_intersects) root = root.child_c;
 			else {
 				// No intersections. Rect is fully enclosed by a circle, outside of any gaps.
 				// Uh... Stop, I guess...
-				System.out.println("Rectangle is consumed.");
+				// Nothing is printed here, as standard output may be carrying the frames. See FrameStream.
 				root.extricate();
 				return root;
 			}
+			
+			passed.discardAllBut(root);
 		}
 	}
 	
-	// Recursively removes children whose descendants cannot influence a render of the passed region.
+	// Removes the children of every grain below this one whose descendants cannot influence a render of the passed region.
 	public void pruneByExcision(SgndAlgndRectangle rect) {
-		if (isLeaf()) return;
-		
-		Triangle child_a_bounds = child_a.getDartBounds();
-		boolean child_a_intersects = child_a_bounds.intersects(rect);
-		if (!child_a_intersects) child_a.excise();
-		else child_a.pruneByExcision(rect);
+		GrainStack stack = GrainStack.get();
+		int base = stack.size;
 		
-		Triangle child_b_bounds = child_b.getDartBounds();
-		boolean child_b_intersects = child_b_bounds.intersects(rect);
-		if (!child_b_intersects) child_b.excise();
-		else child_b.pruneByExcision(rect);
-		
-		Triangle child_c_bounds = child_c.getDartBounds();
-		boolean child_c_intersects = child_c_bounds.intersects(rect);
-		if (!child_c_intersects) child_c.excise();
-		else child_c.pruneByExcision(rect);
+		stack.push(this, 0);
+		while (stack.size > base) {
+			ApolloniusGrain grain = stack.pop();
+			if (grain.isLeaf()) continue;
+			
+			// Children are pushed in reverse, so that they are visited in order.
+			if (!grain.child_c.getDartBounds().intersects(rect)) grain.child_c.excise();
+			else stack.push(grain.child_c, 0);
+			
+			if (!grain.child_b.getDartBounds().intersects(rect)) grain.child_b.excise();
+			else stack.push(grain.child_b, 0);
+			
+			if (!grain.child_a.getDartBounds().intersects(rect)) grain.child_a.excise();
+			else stack.push(grain.child_a, 0);
+		}
 	}
 	
-	/** Modifies the tree to preveent floating-point precision issues.
+	/** Changes the tree's frame of reference to prevent floating-point precision issues.
 	* Moves this circle to the origin and scales it by a power of two to have a radius in the range of 0.5 to 1.
-	* Moves all children accordingly.
+	* Only the scaffolding is moved. Every other grain is placed relative to its parent, and follows along the next time its circle is needed, so this takes the same time however large the tree.
+	* Must be called on the root, while no other thread is using the tree. Trees in double-double mode are precise enough as they are, and cannot be renormalized.
 	* @return A viewport, scaled and translated to produce the same render as the passed viewport would have before this call.
 	*/
 	public SgndAlgndRectangle renormalize(SgndAlgndRectangle viewport) {
-		int scale = 2 << (int) (Math.log(1 / radius()) / Math.log(2));
-		Vector offset = circle.origin.position().negated();
+		if (!isRoot()) {
+			throw new Error("Invalid state. renormalize must only be called on root.");
+		}
 		
-		renormalize(offset, scale);
+		if (circle().isPrecise()) {
+			throw new Error("Invalid state. Trees in double-double mode cannot be renormalized.");
+		}
 		
-		return viewport.translated(offset).scaled(scale);
-	}
-	
-	/** Transform the entire tree by the given translation followed by scaling about the origin. */
-	private void renormalize(Vector offset, int scale) {
-		circle.translate(offset);
-		circle.scale(scale);
+		// Unlike an integer shift, this cannot overflow however deep the zoom.
+		double scale = Math.scalb(1.0, -Math.getExponent(radius()) - 1);
+		Vector offset = origin().position().negated();
 		
-		if (!isLeaf()) {
-			child_a.renormalize(offset, scale);
-			child_b.renormalize(offset, scale);
-			child_c.renormalize(offset, scale);
+		ApolloniusGrain[] scaffolding = new ApolloniusGrain[] {parent, contributor_a, contributor_b};
+		for (int scaffold_i = 0; scaffold_i < 3; scaffold_i++) {
+			ApolloniusGrain scaffold = scaffolding[scaffold_i];
+			scaffold.local_x = (scaffold.local_x + offset.x) * scale;
+			scaffold.local_y = (scaffold.local_y + offset.y) * scale;
+			scaffold.local_radius *= scale;
 		}
+		
+		frame.scale *= scale;
+		frame.version++;
+		
+		return new SgndAlgndRectangle(
+			new Point((viewport.a.x + offset.x) * scale, (viewport.a.y + offset.y) * scale),
+			new Point((viewport.b.x + offset.x) * scale, (viewport.b.y + offset.y) * scale)
+		);
 	}
 	
 	// Deletes all internal relations among ancestors, allowing them to be garbage-collected, except this node's parent and contributors.
+	// Each grain's parents are pushed before its own relations are deleted, which turns it into scaffolding. Either way, every grain's circle can still be found when it is anchored.
 	private void extricate() {
-		if (!isRoot() && !isScaffold()) {
-			ApolloniusGrain[] parents = new ApolloniusGrain[] {parent, contributor_a, contributor_b};
-			for (int parent_i = 0; parent_i < 3; parent_i++) {
-				parents[parent_i].extricate();
-				
-				parents[parent_i].parent = null;
-				parents[parent_i].contributor_a = null;
-				parents[parent_i].contributor_b = null;
+		GrainStack stack = GrainStack.get();
+		int base = stack.size;
+		
+		stack.push(this, 0);
+		while (stack.size > base) {
+			ApolloniusGrain grain = stack.pop();
+			
+			if (!grain.isRoot() && !grain.isScaffold()) {
+				stack.push(grain.contributor_b, 0);
+				stack.push(grain.contributor_a, 0);
+				stack.push(grain.parent, 0);
+			}
+			
+			if (grain != this) {
+				// Scaffolding is placed directly in the frame of reference.
+				grain.anchor();
+				grain.parent = null;
+				grain.contributor_a = null;
+				grain.contributor_b = null;
 			}
 		}
 	}
 	
 	// Deletes all internal relations among descendants, allowing them to be garbage-collected.
 	private void excise() {
-		if (!isLeaf()) {
-			ApolloniusGrain[] children = new ApolloniusGrain[] {child_a, child_b, child_c};
-			for (int child_i = 0; child_i < 3; child_i++) {
-				children[child_i].excise();
-				
-				children[child_i].parent = null;
-				children[child_i].contributor_a = null;
-				children[child_i].contributor_b = null;
-			}
+		GrainStack stack = GrainStack.get();
+		int base = stack.size;
+		
+		stack.push(this, 0);
+		while (stack.size > base) {
+			ApolloniusGrain grain = stack.pop();
+			if (grain.isLeaf()) continue;
+			
+			stack.push(grain.child_a, 0);
+			stack.push(grain.child_b, 0);
+			stack.push(grain.child_c, 0);
+			
+			grain.forgetChildren();
+			
+			grain.child_a.parent = null;
+			grain.child_a.contributor_a = null;
+			grain.child_a.contributor_b = null;
 			
-			child_a = null;
-			child_b = null;
-			child_c = null;
+			grain.child_b.parent = null;
+			grain.child_b.contributor_a = null;
+			grain.child_b.contributor_b = null;
+			
+			grain.child_c.parent = null;
+			grain.child_c.contributor_a = null;
+			grain.child_c.contributor_b = null;
+			
+			grain.child_a = null;
+			grain.child_b = null;
+			grain.child_c = null;
+			
+			// This grain may be expanded again.
+			grain.expansion_claimed = false;
 		}
 	}
 	
-	private ApolloniusGrain getContainmentCircleRecurse(Point p, int current_depth, boolean do_debug) {
-		if (this.circle.contains(p)) {
-			return this;
+	// Takes this grain out of the tree's statistics, along with its children other than the passed one and their subtrees, which are cut off.
+	// Used by pruneByExtrication() on each grain it passes on the way down to the new root. Each is then taken out of the tree by extricate().
+	private void discardAllBut(ApolloniusGrain kept) {
+		layers.remove(depth, local_radius);
+		
+		ApolloniusGrain[] children = {child_a, child_b, child_c};
+		for (ApolloniusGrain child : children) {
+			if (child == kept) continue;
+			
+			child.excise();
+			layers.remove(child.depth, child.local_radius);
 		}
-		else {
-			if (isLeaf()) {
-				return null;
+	}
+	
+	// Records this grain's children in the passed tally, once they are attached to it. The tally is merged into the tree's statistics later.
+	private void recordChildren(LayerStats.Tally added) {
+		added.add(depth + 1, child_a.local_radius);
+		added.add(depth + 1, child_b.local_radius);
+		added.add(depth + 1, child_c.local_radius);
+	}
+	
+	// Takes this grain's children out of the tree's statistics, before they are detached from it.
+	private void forgetChildren() {
+		layers.remove(depth + 1, child_a.local_radius);
+		layers.remove(depth + 1, child_b.local_radius);
+		layers.remove(depth + 1, child_c.local_radius);
+	}
+	
+	// Searches down from this grain for the circle containing the passed point, choosing at each step the child whose dart contains it.
+	private ApolloniusGrain descend(Point p) {
+		ApolloniusGrain grain = this;
+		while (true) {
+			if (grain.circle().contains(p)) {
+				return grain;
 			}
-			else {
-				ApolloniusGrain[] children = new ApolloniusGrain[] {child_a, child_b, child_c};
-				for (int i = 0; i < 3; i++) {
-					Triangle dart_bounds = children[i].getDartBounds();
-					if (dart_bounds.contains(p)) {
-						return children[i].getContainmentCircleRecurse(p, current_depth+1, do_debug);
-					}
-				}
+			
+			if (grain.isLeaf()) {
+				return null;
 			}
+			
+			if (grain.child_a.getDartBounds().contains(p)) grain = grain.child_a;
+			else if (grain.child_b.getDartBounds().contains(p)) grain = grain.child_b;
+			else if (grain.child_c.getDartBounds().contains(p)) grain = grain.child_c;
+			else return null;
 		}
-		
-		return null;
 	}
 	
-	// Returns five arrays giving, for each layer:
+	// Returns five arrays giving, for each layer from the deepest up to this one:
 	// - circle quantity
 	// - Total covered area
 	// - minimum radius
 	// - average radius
 	// - maximum radius
+	// These are read from statistics kept up to date as grains are added and removed, so this takes time in proportion to the depth of the tree rather than its size. See LayerStats.
+	// Must be called on the root.
 	public double[][] getStats() {
-		if (isLeaf()) {
-			return new double[][] {{1}, {area()}, {radius()}, {radius()}, {radius()}};
-		}
-		
-		double[][][] child_stats = new double[][][] {
-			this.child_a.getStats(),
-			this.child_b.getStats(),
-			this.child_c.getStats()
-		};
-		
-		// Find which child has the greatest depth.
-		int max_depth = 0;
-		for (int child = 0; child < 3; child++) {
-			if (child_stats[child][0].length > max_depth) {
-				max_depth = child_stats[child][0].length;
-			}
-		}
-		
-		// Pad child arrays.
-		for (int child_i = 0; child_i < 3; child_i++) {
-			for (int metric_i = 0; metric_i < child_stats[child_i].length; metric_i++) {
-				int cur_metric_array_len = child_stats[child_i][metric_i].length;
-				
-				if (cur_metric_array_len != max_depth) {
-					// Create longer array and paste in values.
-					double[] new_metric_array = new double[max_depth];
-					
-					for (int layer_i = 0; layer_i < cur_metric_array_len; layer_i++) {
-						new_metric_array[layer_i + max_depth - cur_metric_array_len] = child_stats[child_i][metric_i][layer_i];
-					}
-					
-					child_stats[child_i][metric_i] = new_metric_array;
-				}
-			}
-		}
-		
-		// Combine child stats.
-		double[][] my_stats = new double[5][max_depth+1];
-		
-		for (int layer = 0; layer < max_depth; layer++) {
-			// Calculate circle quantity and area.
-			double total_child_circles = 0;
-			double total_circles_area = 0;
-			for (int child = 0; child < 3; child++) {
-				total_child_circles += child_stats[child][0][layer];
-				total_circles_area += child_stats[child][1][layer];
-			}
-			
-			my_stats[0][layer] = total_child_circles;
-			my_stats[1][layer] = total_circles_area;
-			
-			// Adjust average.
-			for (int child = 0; child < 3; child++) {
-				double child_weight = child_stats[child][0][layer] / total_child_circles;
-				my_stats[3][layer] += child_stats[child][3][layer] * child_weight;
-			}
-			
-			// Set min and max.
-			my_stats[2][layer] = Math.min(
-				child_stats[0][2][layer],
-				Math.min(child_stats[1][2][layer],
-				child_stats[2][2][layer])
-			);
-			
-			my_stats[4][layer] = Math.max(
-				child_stats[0][4][layer],
-				Math.max(child_stats[1][4][layer],
-				child_stats[2][4][layer])
-			);
+		if (!isRoot()) {
+			throw new Error("Invalid state. getStats must only be called on root.");
 		}
 		
-		// Add self to stats
-		my_stats[0][max_depth] = 1;
-		my_stats[1][max_depth] = area();
-		my_stats[2][max_depth] = radius();
-		my_stats[3][max_depth] = radius();
-		my_stats[4][max_depth] = radius();
-		
-		return my_stats;
-			
+		return layers.get(depth, frame.scale);
 	}
 	
 	private int getMaxDepth() {
-		if (isLeaf()) {
-			return 0;
-		}
-		else {
-			return child_a.getMaxDepth() + 1;
+		int depth = 0;
+		for (ApolloniusGrain grain = this; !grain.isLeaf(); grain = grain.child_a) {
+			depth++;
 		}
+		
+		return depth;
 	}
 	
 	// Obtains stats on this tree and prints them.
 	public void debug() {
+		printStats(getStats());
+	}
+	
+	// Prints stats in the format returned by getStats().
+	public static void printStats(double[][] stats) {
 		String[] names = {" AREA", "MIN R", "AVG R", "MAX R"};
-		double[][] stats = getStats();
 		
 		// Display layer numbers.
 		System.out.print(String.format("LY ID: layer %2d", stats[0].length));
@@ -431,23 +916,23 @@ class ApolloniusGrain {
 	}
 	
 	public boolean contains(Point p) {
-		return circle.contains(p);
+		return circle().contains(p);
 	}
 	
 	public Point origin() {
-		return circle.origin;
+		return circle().origin;
 	}
 	
 	public double radius() {
-		return circle.radius;
+		return circle().radius;
 	}
 	
 	public double diameter() {
-		return circle.diameter();
+		return circle().diameter();
 	}
 	
 	public double area() {
-		return circle.area();
+		return circle().area();
 	}
 	
 	private boolean isLeaf() {
@@ -458,15 +943,292 @@ class ApolloniusGrain {
 		return this.parent == null;
 	}
 	
-	private boolean isRoot() {
+	boolean isRoot() {
 		return this.parent != null && this.parent.isScaffold();
 	}
 	
 	public String toString() {
-		return this.circle.toString();
+		return this.circle().toString();
+	}
+	
+	// A grain's circle and dart bounds, as of one version of the frame of reference. Immutable, so that threads resolving the same grain at once may publish them without locking.
+	private static class Placement {
+		final Circle circle;
+		final PreparedTriangle dart_bounds;
+		final int version;
+		
+		Placement(Circle circle, PreparedTriangle dart_bounds, int version) {
+			this.circle = circle;
+			this.dart_bounds = dart_bounds;
+			this.version = version;
+		}
+	}
+	
+	// Expands one grain for a calculateChildrenTo*() method, pushing the children to be visited in turn, and recording any it attaches in the passed tally. See generate().
+	private interface GenerationStep {
+		void step(ApolloniusGrain grain, int value, List<ApolloniusGrain> detached, GrainStack next, LayerStats.Tally added);
+	}
+	
+	// A stack of grains, each pushed along with an int, for walking the tree without recursion.
+	// Each thread has one, which it reuses for every traversal. A traversal may start another, such as an excision during pruning, as long as it leaves the stack as it found it: it pops only what it pushed.
+	private static class GrainStack {
+		private static final ThreadLocal<GrainStack> STACKS = ThreadLocal.withInitial(GrainStack::new);
+		
+		ApolloniusGrain[] grains = new ApolloniusGrain[64];
+		int[] values = new int[64];
+		int size = 0;
+		
+		static GrainStack get() {
+			return STACKS.get();
+		}
+		
+		void push(ApolloniusGrain grain, int value) {
+			if (size == grains.length) {
+				grains = Arrays.copyOf(grains, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			
+			grains[size] = grain;
+			values[size] = value;
+			size++;
+		}
+		
+		// The grain is cleared from the stack, so that the stack does not keep it from being garbage-collected. Its value remains until the next push, as value().
+		ApolloniusGrain pop() {
+			ApolloniusGrain grain = grains[--size];
+			grains[size] = null;
+			return grain;
+		}
+		
+		// The value of the grain popped last.
+		int value() {
+			return values[size];
+		}
+	}
+}
+
+// The frame of reference of a tree of grains, shared by all of them. Changed only by ApolloniusGrain.renormalize().
+class ReferenceFrame {
+	// How many times the tree has been renormalized. Grains whose circles were resolved for an older version resolve them again before they are next used.
+	int version = 0;
+	
+	// Size of the tree's original units in the current frame. Always a power of two.
+	double scale = 1;
+}
+
+// Statistics on each layer of a tree of grains, shared by all of them. ApolloniusGrain keeps them up to date as grains are attached to the tree and taken out of it, so reading them never walks the tree.
+// Layers are numbered by depth, counting from the tree's first root. Radii and areas are held in the tree's original units, so renormalizing leaves them as they are. See ReferenceFrame.
+// Grains may be attached from several threads at once, by the parallel calculateChildrenTo*() methods and by expandConcurrently(), so every method is synchronized.
+// Those record the grains they attach in a Tally of their own instead, which is merged in once they are done, so that threads take the lock once per task rather than once per grain.
+class LayerStats {
+	private long[] count = new long[0];
+	
+	// Removing grains subtracts their areas and radii, which would leave little but rounding error in layers where nearly everything has been pruned away, as happens deep into a zoom.
+	// Each sum is therefore carried along with its rounding error, as in DoubleDouble.
+	private double[] area = new double[0];
+	private double[] area_error = new double[0];
+	private double[] radius = new double[0];
+	private double[] radius_error = new double[0];
+	
+	// Minima and maxima cannot be taken back when grains are removed, so they cover every grain a layer has held since it was last empty.
+	private double[] min_radius = new double[0];
+	private double[] max_radius = new double[0];
+	
+	public synchronized void add(int depth, double grain_radius) {
+		prepareLayer(depth);
+		
+		count[depth]++;
+		accumulate(area, area_error, depth, Math.PI * grain_radius * grain_radius);
+		accumulate(radius, radius_error, depth, grain_radius);
+		min_radius[depth] = Math.min(min_radius[depth], grain_radius);
+		max_radius[depth] = Math.max(max_radius[depth], grain_radius);
+	}
+	
+	// Adds every grain recorded in the tally, as add() would have one at a time.
+	public synchronized void merge(Tally tally) {
+		for (int depth = 0; depth < tally.count.length; depth++) {
+			if (tally.count[depth] == 0) continue;
+			
+			prepareLayer(depth);
+			
+			count[depth] += tally.count[depth];
+			accumulate(area, area_error, depth, tally.area[depth]);
+			accumulate(area, area_error, depth, tally.area_error[depth]);
+			accumulate(radius, radius_error, depth, tally.radius[depth]);
+			accumulate(radius, radius_error, depth, tally.radius_error[depth]);
+			min_radius[depth] = Math.min(min_radius[depth], tally.min_radius[depth]);
+			max_radius[depth] = Math.max(max_radius[depth], tally.max_radius[depth]);
+		}
+	}
+	
+	// Makes room for the layer, and resets its minimum and maximum if it is empty.
+	private void prepareLayer(int depth) {
+		if (depth >= count.length) {
+			int length = Math.max(depth + 1, count.length * 2);
+			count = Arrays.copyOf(count, length);
+			area = Arrays.copyOf(area, length);
+			area_error = Arrays.copyOf(area_error, length);
+			radius = Arrays.copyOf(radius, length);
+			radius_error = Arrays.copyOf(radius_error, length);
+			min_radius = Arrays.copyOf(min_radius, length);
+			max_radius = Arrays.copyOf(max_radius, length);
+		}
+		
+		if (count[depth] == 0) {
+			min_radius[depth] = Double.POSITIVE_INFINITY;
+			max_radius[depth] = 0;
+		}
+	}
+	
+	// Takes out a grain added with the same depth and radius.
+	public synchronized void remove(int depth, double grain_radius) {
+		if (depth >= count.length || count[depth] == 0)
+			throw new Error("Invalid state. A grain was removed from a layer which holds none.");
+		
+		count[depth]--;
+		if (count[depth] == 0) {
+			area[depth] = area_error[depth] = 0;
+			radius[depth] = radius_error[depth] = 0;
+			return;
+		}
+		
+		accumulate(area, area_error, depth, -Math.PI * grain_radius * grain_radius);
+		accumulate(radius, radius_error, depth, -grain_radius);
+	}
+	
+	// Returns the statistics for each layer from the deepest up to the passed one, in the format of ApolloniusGrain.getStats(). Radii are multiplied by the passed scale, and areas by its square.
+	public synchronized double[][] get(int top_depth, double scale) {
+		int bottom_depth = count.length - 1;
+		while (bottom_depth > top_depth && count[bottom_depth] == 0) {
+			bottom_depth--;
+		}
+		
+		int num_layers = bottom_depth - top_depth + 1;
+		double[][] stats = new double[5][num_layers];
+		for (int layer = 0; layer < num_layers; layer++) {
+			int depth = bottom_depth - layer;
+			
+			stats[0][layer] = count[depth];
+			stats[1][layer] = (area[depth] + area_error[depth]) * scale * scale;
+			stats[2][layer] = min_radius[depth] * scale;
+			stats[3][layer] = (radius[depth] + radius_error[depth]) / count[depth] * scale;
+			stats[4][layer] = max_radius[depth] * scale;
+		}
+		
+		return stats;
+	}
+	
+	// Adds the passed value to a sum and its rounding error. The error picks up what is lost in rounding each new sum, exactly, as in DoubleDouble.sum().
+	private static void accumulate(double[] sum, double[] error, int depth, double value) {
+		double total = sum[depth] + value;
+		double rounded_value = total - sum[depth];
+		error[depth] += (sum[depth] - (total - rounded_value)) + (value - rounded_value);
+		sum[depth] = total;
+	}
+	
+	// Grains added by one thread, to be merged into the tree's statistics all at once. Not thread-safe.
+	static class Tally {
+		private long[] count = new long[0];
+		private double[] area = new double[0];
+		private double[] area_error = new double[0];
+		private double[] radius = new double[0];
+		private double[] radius_error = new double[0];
+		private double[] min_radius = new double[0];
+		private double[] max_radius = new double[0];
+		
+		void add(int depth, double grain_radius) {
+			if (depth >= count.length) {
+				int old_length = count.length;
+				int length = Math.max(depth + 1, old_length * 2);
+				count = Arrays.copyOf(count, length);
+				area = Arrays.copyOf(area, length);
+				area_error = Arrays.copyOf(area_error, length);
+				radius = Arrays.copyOf(radius, length);
+				radius_error = Arrays.copyOf(radius_error, length);
+				min_radius = Arrays.copyOf(min_radius, length);
+				max_radius = Arrays.copyOf(max_radius, length);
+				Arrays.fill(min_radius, old_length, length, Double.POSITIVE_INFINITY);
+			}
+			
+			count[depth]++;
+			accumulate(area, area_error, depth, Math.PI * grain_radius * grain_radius);
+			accumulate(radius, radius_error, depth, grain_radius);
+			min_radius[depth] = Math.min(min_radius[depth], grain_radius);
+			max_radius[depth] = Math.max(max_radius[depth], grain_radius);
+		}
+	}
+}
+
+// Remembers where the last containment query ended so that the next query for a nearby point can start there instead of at the root.
+// Not thread-safe. Each thread should use its own hint, and consecutive queries should be for nearby points for the hint to be of any use.
+class ContainmentHint {
+	ApolloniusGrain root;
+	ApolloniusGrain grain; // The deepest grain whose dart contained the last point.
+	ApolloniusGrain result; // The grain returned by the last query.
+	
+	// If set, queries expand the leaves they reach until their circles are no larger than expand_diameter.
+	// The new grains are recorded in added, which must then be merged into the tree's statistics. See LayerStats.merge().
+	boolean expand;
+	double expand_diameter;
+	LayerStats.Tally added;
+	
+	// Totals over all queries made using this hint.
+	long queries;
+	long triangle_tests;
+	
+	public double getTriangleTestsPerQuery() {
+		return queries == 0 ? 0 : (double) triangle_tests / queries;
+	}
+}
+
+// A frame on its way through the pipeline in Apollonius.main().
+class Frame {
+	final int index;
+	final SgndAlgndRectangle viewport;
+	final double pixel_width;
+	
+	// The tree as it stood once this frame was generated. Only one of these is used.
+	ApolloniusGrain root;
+	GrainStore store;
+	GrainSnapshot snapshot;
+	
+	// Whether the frame is rendered in double-double arithmetic.
+	boolean precise;
+	
+	BufferedImage image;
+	
+	// Released once the frame has been rendered, after which its tree may be changed for later frames.
+	final CountDownLatch rendered = new CountDownLatch(1);
+	
+	// Seconds spent in each stage.
+	double gen_time;
+	double render_time;
+	double write_time;
+	
+	// Average number of dart tests per pixel in this frame's own render, if it was rendered by RenderMode.TILED. Zero otherwise.
+	double triangle_tests_per_px;
+	
+	Frame(int index, SgndAlgndRectangle viewport, double pixel_width) {
+		this.index = index;
+		this.viewport = viewport;
+		this.pixel_width = pixel_width;
 	}
 }
 
+// The ways a frame can be rendered. All of them produce the same image.
+enum RenderMode {
+	// Searches the tree for the circle containing each pixel, on multiple threads. See TiledRenderer.
+	TILED,
+	// Walks the tree once, drawing each circle into the image. See ScanRenderer.
+	SCANLINE,
+	// Like TILED, but searches for whole blocks of pixels at once, testing them with SIMD instructions where available. See PacketRenderer.
+	PACKET,
+	// Like TILED, but each pixel only tests the circles listed in its cell of a grid, which is built for each frame before rendering it. See GrainGrid.
+	GRID,
+	// Like TILED, but classifies whole blocks of pixels at once, and only searches for single pixels along the boundaries of circles. See BlockRenderer.
+	BLOCK
+}
+
 public class Apollonius {
 	// Returns up to two circles which are tangent to the passed circles.
 	// This solution DOES NOT WORK if the circles form a straight line, even if there is a solution, because in this special case the solution circle radii are equal.
@@ -590,6 +1352,193 @@ public class Apollonius {
 			return sols[1];
 	}
 	
+	// Allocation-free form of getSmallerSolutionCircle(). Each circle is passed as its origin and radius.
+	// Writes the x, y and radius of the smaller external solution circle to out[0], out[1] and out[2], and returns true. Returns false, leaving out untouched, if there is no solution.
+	// Uses the same algebra as solve(), and so shares its problem with collinear origins, but finds the roots of the quadratic in a way that avoids catastrophic cancellation.
+	public static boolean solveSmaller(double ax, double ay, double ar, double bx, double by, double br, double cx, double cy, double cr, double[] out) {
+		double constant_a = ax*ax + ay*ay - ar*ar;
+		double constant_b = bx*bx + by*by - br*br;
+		double constant_c = cx*cx + cy*cy - cr*cr;
+		
+		double a1 = 2*(ax - bx);
+		double b1 = 2*(ay - by);
+		double c1 = 2*(ar - br);
+		double d1 = constant_a - constant_b;
+		
+		double a2 = 2*(ax - cx);
+		double b2 = 2*(ay - cy);
+		double c2 = 2*(ar - cr);
+		double d2 = constant_a - constant_c;
+		
+		// x and y in terms of the radius, scaled by the common denominator. See solve().
+		double r2x_slope  = b1*c2 - b2*c1;
+		double r2x_offset = b2*d1 - b1*d2;
+		double r2y_slope  = a2*c1 - a1*c2;
+		double r2y_offset = a1*d2 - a2*d1;
+		
+		double cd = a1*b2 - b1*a2;
+		
+		double qa = r2x_slope*r2x_slope + r2y_slope*r2y_slope - cd*cd;
+		double qb = 2*((r2x_slope*r2x_offset + r2y_slope*r2y_offset) - (ax*r2x_slope + ay*r2y_slope)*cd - ar*cd*cd);
+		double qc = (r2y_offset*r2y_offset + r2x_offset*r2x_offset) - (2*ax*r2x_offset + 2*ay*r2y_offset)*cd + (ax*ax + ay*ay - ar*ar)*cd*cd;
+		
+		double radicand = qb*qb - 4*qa*qc;
+		if (!(radicand >= 0)) {
+			return false;
+		}
+		
+		// Computing q with the sign of qb means -qb and the root are never subtracted from one another. The roots are then q / qa and qc / q.
+		double q = -(qb + Math.copySign(Math.sqrt(radicand), qb)) / 2;
+		double root_1 = q / qa;
+		double root_2 = qc / q;
+		
+		// Negative radii are imaginary solutions. Take the smaller of the others.
+		double radius;
+		if (root_1 >= 0 && root_2 >= 0) radius = Math.min(root_1, root_2);
+		else if (root_1 >= 0) radius = root_1;
+		else if (root_2 >= 0) radius = root_2;
+		else return false;
+		
+		out[0] = (r2x_slope*radius + r2x_offset) / cd;
+		out[1] = (r2y_slope*radius + r2y_offset) / cd;
+		out[2] = radius;
+		return true;
+	}
+	
+	// Obtains the smaller circle tangent to three mutually tangent circles using the Descartes circle theorem, or null if there is none.
+	// See solveSmallerDescartes().
+	public static Circle getSmallerSolutionCircleDescartes(Circle A, Circle B, Circle C, Circle opposite) {
+		double[] out = new double[3];
+		boolean solved = solveSmallerDescartes(
+			A.origin.x, A.origin.y, A.radius,
+			B.origin.x, B.origin.y, B.radius,
+			C.origin.x, C.origin.y, C.radius,
+			opposite == null ? 0 : opposite.origin.x, opposite == null ? 0 : opposite.origin.y, opposite == null ? Double.NaN : opposite.radius,
+			out
+		);
+		
+		return solved ? new Circle(new Point(out[0], out[1]), out[2]) : null;
+	}
+	
+	// Finds the smaller circle tangent to three mutually tangent circles using the Descartes circle theorem. Output is as for solveSmaller().
+	// Pass the other circle tangent to all three as the opposite (ox, oy, or), or a NaN radius if it is unknown. The new circle is then its reflection through the Descartes relation,
+	// k4 = 2(k1 + k2 + k3) - k4', which requires no square roots at all. The same relation holds for each curvature-scaled center (in the complex form of the theorem).
+	// Otherwise, the full complex Descartes theorem is solved. Unlike solve(), this works even if the circles' origins are collinear.
+	public static boolean solveSmallerDescartes(double ax, double ay, double ar, double bx, double by, double br, double cx, double cy, double cr, double ox, double oy, double or, double[] out) {
+		double k1 = 1 / ar;
+		double k2 = 1 / br;
+		double k3 = 1 / cr;
+		
+		if (!Double.isNaN(or)) {
+			double k4 = 1 / or;
+			double k = 2*(k1 + k2 + k3) - k4;
+			if (!(k > 0)) return false;
+			
+			out[0] = (2*(k1*ax + k2*bx + k3*cx) - k4*ox) / k;
+			out[1] = (2*(k1*ay + k2*by + k3*cy) - k4*oy) / k;
+			out[2] = 1 / k;
+			return true;
+		}
+		
+		double radicand = k1*k2 + k2*k3 + k3*k1;
+		if (radicand < 0) return false;
+		
+		// The larger of the two curvatures belongs to the smaller circle.
+		double k = k1 + k2 + k3 + 2*Math.sqrt(radicand);
+		double r = 1 / k;
+		
+		// Sum of curvature-scaled centers, as complex numbers.
+		double sum_re = k1*ax + k2*bx + k3*cx;
+		double sum_im = k1*ay + k2*by + k3*cy;
+		
+		// k1k2z1z2 + k2k3z2z3 + k3k1z3z1
+		double prod_re = k1*k2*(ax*bx - ay*by) + k2*k3*(bx*cx - by*cy) + k3*k1*(cx*ax - cy*ay);
+		double prod_im = k1*k2*(ax*by + ay*bx) + k2*k3*(bx*cy + by*cx) + k3*k1*(cx*ay + cy*ax);
+		
+		// Principal complex square root.
+		double modulus = Math.hypot(prod_re, prod_im);
+		double root_re = Math.sqrt((modulus + prod_re) / 2);
+		double root_im = Math.copySign(Math.sqrt((modulus - prod_re) / 2), prod_im);
+		
+		// Either sign of the root may be the correct one. Take whichever gives the circle that best touches all three.
+		double plus_x  = (sum_re + 2*root_re) / k, plus_y  = (sum_im + 2*root_im) / k;
+		double minus_x = (sum_re - 2*root_re) / k, minus_y = (sum_im - 2*root_im) / k;
+		
+		boolean use_plus = getTangencyError(plus_x, plus_y, r, ax, ay, ar, bx, by, br, cx, cy, cr) <= getTangencyError(minus_x, minus_y, r, ax, ay, ar, bx, by, br, cx, cy, cr);
+		out[0] = use_plus ? plus_x : minus_x;
+		out[1] = use_plus ? plus_y : minus_y;
+		out[2] = r;
+		return true;
+	}
+	
+	// Sum over the other three circles of how far each is from being externally tangent to the first.
+	private static double getTangencyError(double x, double y, double r, double ax, double ay, double ar, double bx, double by, double br, double cx, double cy, double cr) {
+		return Math.abs(Math.hypot(x - ax, y - ay) - r - ar)
+			+ Math.abs(Math.hypot(x - bx, y - by) - r - br)
+			+ Math.abs(Math.hypot(x - cx, y - cy) - r - cr);
+	}
+	
+	// Same as solveSmallerDescartes(), but in double-double arithmetic, for circles in double-double mode. Returns the solution in double-double mode, or null if there is none.
+	// The opposite may be null if it is unknown.
+	public static Circle solveSmallerDescartesPrecise(Circle A, Circle B, Circle C, Circle opposite) {
+		DoubleDouble k1 = A.precise_radius.reciprocal();
+		DoubleDouble k2 = B.precise_radius.reciprocal();
+		DoubleDouble k3 = C.precise_radius.reciprocal();
+		
+		// Sum of curvature-scaled centers, as complex numbers.
+		DoubleDouble sum_re = k1.multiply(A.precise_x).add(k2.multiply(B.precise_x)).add(k3.multiply(C.precise_x));
+		DoubleDouble sum_im = k1.multiply(A.precise_y).add(k2.multiply(B.precise_y)).add(k3.multiply(C.precise_y));
+		
+		if (opposite != null) {
+			DoubleDouble k4 = opposite.precise_radius.reciprocal();
+			DoubleDouble k = k1.add(k2).add(k3).multiply(2).subtract(k4);
+			if (!(k.signum() > 0)) return null;
+			
+			return new Circle(
+				sum_re.multiply(2).subtract(k4.multiply(opposite.precise_x)).divide(k),
+				sum_im.multiply(2).subtract(k4.multiply(opposite.precise_y)).divide(k),
+				k.reciprocal()
+			);
+		}
+		
+		DoubleDouble radicand = k1.multiply(k2).add(k2.multiply(k3)).add(k3.multiply(k1));
+		if (radicand.signum() < 0) return null;
+		
+		// The larger of the two curvatures belongs to the smaller circle.
+		DoubleDouble k = k1.add(k2).add(k3).add(radicand.sqrt().multiply(2));
+		
+		// k1k2z1z2 + k2k3z2z3 + k3k1z3z1
+		DoubleDouble[] ab = complexProduct(A.precise_x, A.precise_y, B.precise_x, B.precise_y);
+		DoubleDouble[] bc = complexProduct(B.precise_x, B.precise_y, C.precise_x, C.precise_y);
+		DoubleDouble[] ca = complexProduct(C.precise_x, C.precise_y, A.precise_x, A.precise_y);
+		DoubleDouble prod_re = k1.multiply(k2).multiply(ab[0]).add(k2.multiply(k3).multiply(bc[0])).add(k3.multiply(k1).multiply(ca[0]));
+		DoubleDouble prod_im = k1.multiply(k2).multiply(ab[1]).add(k2.multiply(k3).multiply(bc[1])).add(k3.multiply(k1).multiply(ca[1]));
+		
+		// Principal complex square root.
+		DoubleDouble modulus = prod_re.square().add(prod_im.square()).sqrt();
+		DoubleDouble root_re = modulus.add(prod_re).multiply(0.5).sqrt();
+		DoubleDouble root_im = modulus.subtract(prod_re).multiply(0.5).sqrt();
+		if (prod_im.signum() < 0) root_im = root_im.negate();
+		
+		// Either sign of the root may be the correct one. As in solveSmallerDescartes(), take whichever gives the circle that best touches all three.
+		DoubleDouble r = k.reciprocal();
+		DoubleDouble plus_x  = sum_re.add(root_re.multiply(2)).divide(k), plus_y  = sum_im.add(root_im.multiply(2)).divide(k);
+		DoubleDouble minus_x = sum_re.subtract(root_re.multiply(2)).divide(k), minus_y = sum_im.subtract(root_im.multiply(2)).divide(k);
+		
+		double plus_error  = getTangencyError(plus_x.doubleValue(),  plus_y.doubleValue(),  r.doubleValue(), A.origin.x, A.origin.y, A.radius, B.origin.x, B.origin.y, B.radius, C.origin.x, C.origin.y, C.radius);
+		double minus_error = getTangencyError(minus_x.doubleValue(), minus_y.doubleValue(), r.doubleValue(), A.origin.x, A.origin.y, A.radius, B.origin.x, B.origin.y, B.radius, C.origin.x, C.origin.y, C.radius);
+		
+		return plus_error <= minus_error ? new Circle(plus_x, plus_y, r) : new Circle(minus_x, minus_y, r);
+	}
+	
+	// The product of two complex numbers, as its real and imaginary parts.
+	private static DoubleDouble[] complexProduct(DoubleDouble a_re, DoubleDouble a_im, DoubleDouble b_re, DoubleDouble b_im) {
+		return new DoubleDouble[] {
+			a_re.multiply(b_re).subtract(a_im.multiply(b_im)),
+			a_re.multiply(b_im).add(a_im.multiply(b_re))
+		};
+	}
+	
 	public static BufferedImage render(ApolloniusGrain root, int width, int height, SgndAlgndRectangle viewport) {
 		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 		for (int y = 0; y < height; y++) {
@@ -617,10 +1566,10 @@ public class Apollonius {
 		return image;
 	}
 	
-    public static void main(String[] args) throws IOException {
-        System.out.println("Hello, World");
+    public static void main(String[] args) throws Exception {
 		
-		Random random = new Random(2);
+		// Decides the color of every grain. See ApolloniusGrain.rootPathHash().
+		long seed = 2;
 		
 		SgndAlgndRectangle viewport = new SgndAlgndRectangle(
 			new Point(-0.5, -1f/3 * Math.sqrt(3)),
@@ -640,49 +1589,288 @@ public class Apollonius {
 		double final_zoom = 16000;
 		int num_frames = 14;// * 24;
 		
+		// How images are produced. See RenderMode.
+		RenderMode render_mode = RenderMode.TILED;
+		
+		// Width and height, in pixels, of the cells of the grid RenderMode.GRID builds for each frame.
+		int grid_cell_size = 4;
+		
+		// Render parallelism.
+		int tile_size = 32;
+		int render_threads = Runtime.getRuntime().availableProcessors();
+		boolean coherent_queries = true;
+		
+		// Generation parallelism. Subtrees are generated on their own threads, and come out the same for any number of them. Applies to ApolloniusGrain trees.
+		int generate_threads = Runtime.getRuntime().availableProcessors();
+		
+		// How the circles of new grains are found. ChildSolver.DESCARTES is cheaper and keeps deep grains closer to tangent.
+		ApolloniusGrain.solver = ChildSolver.APOLLONIUS;
+		
+		// Keep the tree in flat arrays (GrainStore) rather than as ApolloniusGrain objects. Renders identically.
+		boolean use_grain_store = false;
+		
+		// Rather than generating the tree before each frame, expand it only where pixels land during rendering. Applies to RenderMode.TILED with ApolloniusGrain trees.
+		boolean expand_while_rendering = false;
+		
+		// Render this many frames at once. Above one, the tree is frozen into a GrainSnapshot once every parallel_frames frames, generated finely enough for all of them, and they are rendered from it concurrently.
+		// The tree may then keep growing for later frames while they render. Applies to ApolloniusGrain trees, always rendered as by RenderMode.TILED, and not to expand_while_rendering.
+		int parallel_frames = 1;
+		
+		// Frames with narrower pixels than this are rendered in double-double arithmetic, as doubles can no longer place the samples and circles finely enough. See DoubleDouble.
+		// If the zoom is going to reach it, the tree is made of circles in double-double mode from the start, since the large circles would already be too far out if solved as doubles. Applies to ApolloniusGrain trees.
+		double precise_pixel_width = 1E-13;
+		
+		// Move the tree's frame of reference to each new root, so that the grains around the view keep small coordinates as the zoom deepens. See ApolloniusGrain.renormalize().
+		// Renders the same images, give or take rounding. Applies to ApolloniusGrain trees rendered frame by frame, and not in double-double mode.
+		boolean renormalize = false;
+		
+		// Set to keep each snapshot in this directory, and to render from the files there rather than generating snapshots again when a later run takes the same zoom. See GrainCache.
+		// Setting it renders from snapshots, even when parallel_frames is one. Applies to ApolloniusGrain trees, and not to expand_while_rendering or double-double mode.
+		String tree_cache_path = null;
+		
+		// PNG output. Bands of rows are compressed in parallel; see PngWriter. Levels run from 0 (none) to 9 (smallest).
+		int png_level = 6;
+		int png_threads = Runtime.getRuntime().availableProcessors();
+		
+		// Set to stream every frame uncompressed into stream_path, or to standard output if it is "-", instead of writing PNGs. See FrameStream.
+		FrameStream.Format stream_format = null;
+		String stream_path = "out/frames.y4m";
+		int frames_per_second = 24;
+		
 		/* ---- END PARAMETERS ---- */
+		
+		// Progress is printed to standard error when standard output carries the frames.
+		PrintStream log = stream_format != null && stream_path.equals("-") ? System.err : System.out;
+		log.println("Hello, World");
+		
+		boolean precise_tree = !use_grain_store && viewport.width() / final_zoom / width < precise_pixel_width;
+		boolean expanding = expand_while_rendering && !use_grain_store && !precise_tree && render_mode == RenderMode.TILED;
+		boolean snapshots = (parallel_frames > 1 || tree_cache_path != null) && !use_grain_store && !precise_tree && !expanding;
 			
 		// Form of an equilateral triangle.
 		Circle A = new Circle(new Point( 0,  2.0/3*Math.sqrt(3)), 1);
 		Circle B = new Circle(new Point(-1, -1.0/3*Math.sqrt(3)), 1);
 		Circle C = new Circle(new Point( 1, -1.0/3*Math.sqrt(3)), 1);
-		ApolloniusGrain root = new ApolloniusGrain(A, B, C, random);
+		TiledRenderer renderer = new TiledRenderer(tile_size, render_threads, coherent_queries);
+		GrainGrid grid = new GrainGrid(grid_cell_size);
+		GrainCache tree_cache = snapshots && tree_cache_path != null ? new GrainCache(Path.of(tree_cache_path), seed, ApolloniusGrain.solver, A, B, C) : null;
+		ForkJoinPool generate_pool = new ForkJoinPool(generate_threads);
+		PngWriter png_writer = new PngWriter(png_level, png_threads);
+		FrameStream frame_stream = stream_format == null ? null
+			: stream_path.equals("-") ? FrameStream.toStandardOutput(stream_format, width, height, frames_per_second)
+			: FrameStream.toFile(stream_format, Path.of(stream_path), width, height, frames_per_second);
 		
 		double zoom_per_frame = Math.pow(final_zoom, 1f / (num_frames-1));
-		for (int frame_i = 0; frame_i < num_frames; frame_i++) {
-			double pixel_width = viewport.width() / width;
-			
-			//for (int i = 0; i < 
-			// Generate fractal.
-			double gen_start_time = System.nanoTime();
-			
-			//root.calculateChildrenToDepth(9, random);
-			root.calculateChildrenToGranularity(pixel_width, random);
 		
-			ApolloniusGrain oldRoot = root;
-			root = root.pruneByExtrication(viewport);
-			root.pruneByExcision(viewport);
-			
-			//if (oldRoot != root) viewport = root.renormalize(viewport);
-			
-			double gen_end_time = System.nanoTime();
-			
-			// Print statistics.
-			//root.debug();
-			
-			// Create image.
-			long render_start_time = System.nanoTime();
-			BufferedImage image = render(root, width, height, viewport);
-			long render_end_time = System.nanoTime();
-			
-			File fout = new File(String.format("out/%03d.png", frame_i));
-			ImageIO.write(image, "png", fout);
-			
-			System.out.println(String.format("FRAME %d: GEN: %.4fs, RENDER: %.4fs PX WIDTH: %.8f.",
-				frame_i, (float) (gen_end_time - gen_start_time) / 1E9, (float) (render_end_time - render_start_time) / 1E9, pixel_width));
+		// Each frame is generated, then rendered, then written, with the three stages running at the same time on consecutive frames.
+		// The queues are kept short, so that rendered images do not pile up when writing is the slowest stage.
+		ArrayBlockingQueue<Frame> generated = new ArrayBlockingQueue<Frame>(1);
+		ArrayBlockingQueue<Frame> rendered = new ArrayBlockingQueue<Frame>(2);
+		
+		long start_time = System.nanoTime();
+		
+		// The pools and the writer are shut down even if a stage fails, since their threads would otherwise keep the JVM from exiting.
+		try {
+			Pipeline.run(
+				// Generate fractal.
+				() -> {
+					ApolloniusGrain root = use_grain_store ? null
+						: precise_tree ? new ApolloniusGrain(A.toPrecise(), B.toPrecise(), C.toPrecise(), seed)
+						: new ApolloniusGrain(A, B, C, seed);
+					GrainStore store = use_grain_store ? new GrainStore(A, B, C, seed) : null;
+					
+					SgndAlgndRectangle frame_viewport = precise_tree ? viewport.toPrecise() : viewport;
+					Frame previous = null;
+					
+					// Frames waiting for the snapshot they will share.
+					ArrayList<Frame> unfrozen = new ArrayList<Frame>();
+					// The snapshot for them, if found in the cache.
+					GrainSnapshot cached = null;
+					
+					for (int frame_i = 0; frame_i < num_frames; frame_i++) {
+						Frame frame = new Frame(frame_i, frame_viewport, frame_viewport.width() / width);
+						frame.precise = precise_tree && frame.pixel_width < precise_pixel_width;
+						
+						long gen_start_time = System.nanoTime();
+						
+						//root.calculateChildrenToDepth(9, generate_pool);
+						if (snapshots) {
+							// Renderers only ever see snapshots, so there is no need to wait for them.
+							// The tree is only pruned to the first frame of each snapshot, whose viewport contains those of the rest.
+							if (unfrozen.isEmpty() && tree_cache != null) {
+								cached = tree_cache.open(frame_i, frame.viewport, frame.pixel_width, zoom_per_frame, Math.min(parallel_frames, num_frames - frame_i));
+							}
+							
+							// The tree is left as it is for cached snapshots. Grains depend only on their place in the tree, so later snapshots come out the same without the detail it skips.
+							if (cached == null) {
+								root.calculateChildrenToGranularity(frame.pixel_width, frame.viewport, generate_pool);
+								if (unfrozen.isEmpty()) {
+									root = root.pruneByExtrication(frame.viewport);
+									root.pruneByExcision(frame.viewport);
+								}
+							}
+							
+							unfrozen.add(frame);
+							if (unfrozen.size() == parallel_frames || frame_i == num_frames - 1) {
+								GrainSnapshot snapshot = cached;
+								if (snapshot == null) {
+									snapshot = new GrainSnapshot(root);
+									
+									if (tree_cache != null) {
+										Frame first = unfrozen.get(0);
+										tree_cache.write(first.index, snapshot, first.viewport, first.pixel_width, zoom_per_frame, unfrozen.size());
+									}
+								}
+								
+								for (Frame waiting : unfrozen) {
+									waiting.snapshot = snapshot;
+								}
+								cached = null;
+							}
+						}
+						else if (use_grain_store) {
+							// Growing a GrainStore can reallocate its arrays, so it must wait until the previous frame has been rendered.
+							if (previous != null) previous.rendered.await();
+							gen_start_time = System.nanoTime();
+							
+							store.calculateChildrenToGranularity(frame.pixel_width, frame.viewport);
+							store.pruneByExtrication(frame.viewport);
+							store.pruneByExcision(frame.viewport);
+							
+							frame.store = store;
+						}
+						else {
+							// The new grains are solved while the previous frame renders, but only attached once it is done.
+							ArrayList<ApolloniusGrain> detached = new ArrayList<ApolloniusGrain>();
+							if (!expanding) {
+								root.calculateChildrenToGranularityDetached(frame.pixel_width, frame.viewport, detached, generate_pool);
+							}
+							
+							long wait_start_time = System.nanoTime();
+							if (previous != null) previous.rendered.await();
+							gen_start_time += System.nanoTime() - wait_start_time;
+							
+							ApolloniusGrain.attachChildren(detached);
+							
+							ApolloniusGrain oldRoot = root;
+							root = root.pruneByExtrication(frame.viewport);
+							root.pruneByExcision(frame.viewport);
+							
+							// The frame is rendered, and the zoom carries on, in the new frame of reference.
+							if (renormalize && !precise_tree && oldRoot != root) {
+								frame_viewport = root.renormalize(frame_viewport);
+								frame = new Frame(frame_i, frame_viewport, frame_viewport.width() / width);
+							}
+							
+							frame.root = root;
+						}
+						
+						frame.gen_time = (System.nanoTime() - gen_start_time) / 1E9;
+						if (!snapshots) {
+							generated.put(frame);
+						}
+						else if (frame.snapshot != null) {
+							// All of the frames sharing the snapshot are ready together.
+							for (Frame waiting : unfrozen) {
+								generated.put(waiting);
+							}
+							unfrozen.clear();
+						}
+						previous = frame;
+						
+						// Zoom in.
+						frame_viewport = new SgndAlgndRectangle(frame_viewport);
+						frame_viewport.zoom(zoom_per_frame);
+					}
+				},
+				// Create image.
+				() -> {
+					// Frames are handed on in order, once each has finished rendering.
+					ArrayDeque<Future<Frame>> in_flight = new ArrayDeque<Future<Frame>>();
+					int max_in_flight = snapshots ? parallel_frames : 1;
+					
+					ExecutorService frame_pool = Executors.newFixedThreadPool(max_in_flight);
+					try {
+						for (int frame_i = 0; frame_i < num_frames; frame_i++) {
+							Frame frame = generated.take();
+							
+							in_flight.add(frame_pool.submit(() -> {
+								// Print statistics.
+								//frame.root.debug();
+								
+								long render_start_time = System.nanoTime();
+								TiledRenderer.QueryCounts counts = new TiledRenderer.QueryCounts();
+								if (frame.precise) {
+									frame.image = renderer.renderPrecise(frame.root, width, height, frame.viewport);
+								}
+								else if (snapshots) {
+									frame.image = renderer.render(frame.snapshot, width, height, frame.viewport, frame.pixel_width);
+								}
+								else if (use_grain_store) {
+									frame.image = renderer.render(frame.store, width, height, frame.viewport);
+								}
+								else {
+									frame.image = switch (render_mode) {
+										case TILED -> expanding
+											? renderer.renderExpanding(frame.root, width, height, frame.viewport, frame.pixel_width, counts)
+											: renderer.render(frame.root, width, height, frame.viewport, counts);
+										case SCANLINE -> ScanRenderer.render(frame.root, width, height, frame.viewport);
+										case PACKET -> PacketRenderer.render(renderer, frame.root, width, height, frame.viewport);
+										case GRID -> {
+											grid.update(frame.root, width, height, frame.viewport);
+											yield renderer.render(grid);
+										}
+										case BLOCK -> BlockRenderer.render(renderer, frame.root, width, height, frame.viewport);
+									};
+								}
+								frame.render_time = (System.nanoTime() - render_start_time) / 1E9;
+								frame.triangle_tests_per_px = counts.getTriangleTestsPerQuery();
+								
+								frame.rendered.countDown();
+								return frame;
+							}));
+							
+							if (in_flight.size() == max_in_flight) {
+								rendered.put(in_flight.remove().get());
+							}
+						}
+						
+						while (!in_flight.isEmpty()) {
+							rendered.put(in_flight.remove().get());
+						}
+					}
+					finally {
+						frame_pool.shutdownNow();
+					}
+				},
+				// Write image.
+				() -> {
+					for (int frame_i = 0; frame_i < num_frames; frame_i++) {
+						Frame frame = rendered.take();
+						
+						long write_start_time = System.nanoTime();
+						if (frame_stream != null) {
+							frame_stream.write(frame.image);
+						}
+						else {
+							File fout = new File(String.format("out/%03d.png", frame.index));
+							png_writer.write(frame.image, fout);
+						}
+						frame.write_time = (System.nanoTime() - write_start_time) / 1E9;
+						
+						log.println(String.format("FRAME %d: GEN: %.4fs, RENDER: %.4fs, WRITE: %.4fs PX WIDTH: %.8f. TRI TESTS / PX: %.2f",
+							frame.index, frame.gen_time, frame.render_time, frame.write_time, frame.pixel_width, frame.triangle_tests_per_px));
+					}
+				}
+			);
 			
-			// Zoom in.
-			viewport.zoom(zoom_per_frame);
+			log.println(String.format("TOTAL: %.4fs", (System.nanoTime() - start_time) / 1E9));
+		}
+		finally {
+			renderer.close();
+			generate_pool.shutdown();
+			png_writer.close();
+			if (frame_stream != null) frame_stream.close();
 		}
     }
 }
\ No newline at end of file
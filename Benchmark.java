@@ -0,0 +1,348 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+
+import ekobadd.geometry.*;
+
+// Micro-benchmarks for the hot paths of generation and rendering.
+// Pass the names of the benchmarks to run, or nothing to run all of them. Each reports the time and the bytes allocated per operation.
+public class Benchmark {
+	// Benchmarks by name, in the order they run.
+	static final Map<String, Runnable> benchmarks = new LinkedHashMap<String, Runnable>();
+	
+	// Results of benchmarked work are written here so the JIT cannot discard the work.
+	static volatile double sink;
+	
+	static {
+		benchmarks.put("solve", Benchmark::benchSolve);
+		benchmarks.put("generate", Benchmark::benchGenerate);
+		benchmarks.put("traverse", Benchmark::benchTraverse);
+		benchmarks.put("curvature", Benchmark::benchCurvature);
+		benchmarks.put("render", Benchmark::benchRender);
+		benchmarks.put("grid", Benchmark::benchGrid);
+		benchmarks.put("block", Benchmark::benchBlock);
+		benchmarks.put("png", Benchmark::benchPng);
+	}
+	
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			args = benchmarks.keySet().toArray(new String[0]);
+		}
+		
+		for (String name : args) {
+			Runnable benchmark = benchmarks.get(name);
+			if (benchmark == null)
+				throw new IllegalArgumentException(String.format("No such benchmark '%s'. Choose from %s.", name, benchmarks.keySet()));
+			
+			System.out.println(String.format("==== %s ====", name));
+			benchmark.run();
+		}
+	}
+	
+	// Compares Apollonius.getSmallerSolutionCircle() against the allocation-free kernels, over the circle triples of a real tree.
+	static void benchSolve() {
+		ArrayList<Circle[]> triples = new ArrayList<Circle[]>();
+		collectTriples(buildTree(8), triples);
+		
+		int n = triples.size();
+		double[] circles = new double[n * 12];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < 4; j++) {
+				circles[i*12 + j*3    ] = triples.get(i)[j].origin.x;
+				circles[i*12 + j*3 + 1] = triples.get(i)[j].origin.y;
+				circles[i*12 + j*3 + 2] = triples.get(i)[j].radius;
+			}
+		}
+		
+		double[] out = new double[3];
+		
+		measure("getSmallerSolutionCircle", n, () -> {
+			double sum = 0;
+			for (Circle[] triple : triples) {
+				sum += Apollonius.getSmallerSolutionCircle(triple[0], triple[1], triple[2]).radius;
+			}
+			return sum;
+		});
+		
+		measure("solveSmaller", n, () -> {
+			double sum = 0;
+			for (int i = 0; i < n * 12; i += 12) {
+				Apollonius.solveSmaller(
+					circles[i], circles[i+1], circles[i+2], circles[i+3], circles[i+4], circles[i+5], circles[i+6], circles[i+7], circles[i+8], out
+				);
+				sum += out[2];
+			}
+			return sum;
+		});
+		
+		measure("solveSmallerDescartes", n, () -> {
+			double sum = 0;
+			for (int i = 0; i < n * 12; i += 12) {
+				Apollonius.solveSmallerDescartes(
+					circles[i], circles[i+1], circles[i+2], circles[i+3], circles[i+4], circles[i+5], circles[i+6], circles[i+7], circles[i+8], circles[i+9], circles[i+10], circles[i+11], out
+				);
+				sum += out[2];
+			}
+			return sum;
+		});
+	}
+	
+	// Compares generating the tree for the first frame of Apollonius.main() on one thread and on all of them. Each operation is a whole tree.
+	// Allocation by the pools' own threads is not counted.
+	static void benchGenerate() {
+		SgndAlgndRectangle viewport = new SgndAlgndRectangle(
+			new Point(-0.5, -1f/3 * Math.sqrt(3)),
+			new Point( 0.5,  1f/6 * Math.sqrt(3))
+		).translated(new Vector(0.155, 0.19985)).zoomed(1.5);
+		
+		double pixel_width = viewport.width() / 1024;
+		int threads = Runtime.getRuntime().availableProcessors();
+		
+		ForkJoinPool single = new ForkJoinPool(1);
+		ForkJoinPool parallel = new ForkJoinPool(threads);
+		try {
+			measure("sequential", 1, () -> {
+				ApolloniusGrain root = buildTree(0);
+				root.calculateChildrenToGranularity(pixel_width, viewport);
+				return root.child_a.datum;
+			});
+			measure("ForkJoinPool, 1 thread", 1, () -> {
+				ApolloniusGrain root = buildTree(0);
+				root.calculateChildrenToGranularity(pixel_width, viewport, single);
+				return root.child_a.datum;
+			});
+			measure(String.format("ForkJoinPool, %d threads", threads), 1, () -> {
+				ApolloniusGrain root = buildTree(0);
+				root.calculateChildrenToGranularity(pixel_width, viewport, parallel);
+				return root.child_a.datum;
+			});
+		}
+		finally {
+			single.shutdown();
+			parallel.shutdown();
+		}
+	}
+	
+	// Times each walk over the whole tree on its own, at a depth where the old recursive walks spent much of their time on calls. Each operation is one grain.
+	// Pruning needs a fresh tree every run, so building one is measured alone as well, to be subtracted.
+	// getStats() reads statistics kept up to date as the tree changes rather than walking it, so it is timed per call.
+	static void benchTraverse() {
+		int depth = 9;
+		int grains = ((int) Math.pow(3, depth + 1) - 1) / 2;
+		
+		SgndAlgndRectangle viewport = new SgndAlgndRectangle(
+			new Point(-0.5, -1f/3 * Math.sqrt(3)),
+			new Point( 0.5,  1f/6 * Math.sqrt(3))
+		).translated(new Vector(0.155, 0.19985)).zoomed(0.25);
+		
+		ApolloniusGrain root = buildTree(depth);
+		
+		measure("calculateChildrenToDepth", grains, () -> buildTree(depth).child_a.datum);
+		measure("build + pruneByExcision", grains, () -> {
+			ApolloniusGrain pruned = buildTree(depth);
+			pruned.pruneByExcision(viewport);
+			return pruned.child_a == null ? 0 : pruned.child_a.datum;
+		});
+		measure("getStats", 1, () -> root.getStats()[0][depth]);
+	}
+	
+	// Compares finding the statistics of a whole tree by generating it against finding them from curvatures alone, on one thread and on all of them. Each operation is one grain.
+	static void benchCurvature() {
+		int depth = 12;
+		int grains = ((int) Math.pow(3, depth + 1) - 1) / 2;
+		
+		Circle A = new Circle(new Point( 0,  2.0/3*Math.sqrt(3)), 1);
+		Circle B = new Circle(new Point(-1, -1.0/3*Math.sqrt(3)), 1);
+		Circle C = new Circle(new Point( 1, -1.0/3*Math.sqrt(3)), 1);
+		CurvatureStats curvatures = new CurvatureStats(A, B, C);
+		
+		int threads = Runtime.getRuntime().availableProcessors();
+		ForkJoinPool parallel = new ForkJoinPool(threads);
+		try {
+			measure("tree + getStats", grains, () -> buildTree(depth).getStats()[1][0]);
+			measure("CurvatureStats", grains, () -> curvatures.getStatsToDepth(depth)[1][0]);
+			measure(String.format("CurvatureStats, %d threads", threads), grains, () -> curvatures.getStatsToDepth(depth, parallel)[1][0]);
+		}
+		finally {
+			parallel.shutdown();
+		}
+	}
+	
+	// Compares the per-pixel search against packet rendering with each kernel, on one thread, over the first frame of Apollonius.main().
+	static void benchRender() {
+		SgndAlgndRectangle viewport = new SgndAlgndRectangle(
+			new Point(-0.5, -1f/3 * Math.sqrt(3)),
+			new Point( 0.5,  1f/6 * Math.sqrt(3))
+		).translated(new Vector(0.155, 0.19985)).zoomed(1.5);
+		
+		int width = 1024;
+		int height = (int) (width / (float) viewport.aspectRatio());
+		
+		ApolloniusGrain root = buildTree(0);
+		root.calculateChildrenToGranularity(viewport.width() / width, viewport);
+		
+		try (TiledRenderer tiles = new TiledRenderer(32, 1, false)) {
+			measure("Apollonius.render", width * height, () -> Apollonius.render(root, width, height, viewport).getRGB(0, 0));
+			measure("TiledRenderer.render", width * height, () -> tiles.render(root, width, height, viewport).getRGB(0, 0));
+			measure("PacketRenderer scalar", width * height, () -> PacketRenderer.render(tiles, new PacketRenderer.ScalarKernel(), root, width, height, viewport).getRGB(0, 0));
+			measure(String.format("PacketRenderer %s", PacketRenderer.KERNEL.getClass().getSimpleName()), width * height, () -> PacketRenderer.render(tiles, root, width, height, viewport).getRGB(0, 0));
+		}
+	}
+	
+	// Compares the per-pixel search, with and without hints, against looking each pixel up in a GrainGrid, on one thread, over the first frame of Apollonius.main().
+	// The grid is timed both with and without building it, for a few sizes of cell.
+	static void benchGrid() {
+		SgndAlgndRectangle viewport = new SgndAlgndRectangle(
+			new Point(-0.5, -1f/3 * Math.sqrt(3)),
+			new Point( 0.5,  1f/6 * Math.sqrt(3))
+		).translated(new Vector(0.155, 0.19985)).zoomed(1.5);
+		
+		int width = 1024;
+		int height = (int) (width / (float) viewport.aspectRatio());
+		
+		ApolloniusGrain root = buildTree(0);
+		root.calculateChildrenToGranularity(viewport.width() / width, viewport);
+		
+		try (TiledRenderer tiles = new TiledRenderer(32, 1, false); TiledRenderer coherent = new TiledRenderer(32, 1, true)) {
+			measure("getContainmentCircle", width * height, () -> tiles.render(root, width, height, viewport).getRGB(0, 0));
+			measure("getContainmentCircle, hint", width * height, () -> coherent.render(root, width, height, viewport).getRGB(0, 0));
+			
+			for (int cell_size : new int[] {1, 4, 16}) {
+				GrainGrid grid = new GrainGrid(cell_size);
+				grid.update(root, width, height, viewport);
+				
+				measure(String.format("GrainGrid %d px, update", cell_size), width * height, () -> {
+					grid.update(root, width, height, viewport);
+					return grid.getCirclesPerCell();
+				});
+				measure(String.format("GrainGrid %d px, lookup", cell_size), width * height, () -> tiles.render(grid).getRGB(0, 0));
+			}
+		}
+	}
+	
+	// Compares the per-pixel search, with hints, against BlockRenderer, on one thread, over the first frame of Apollonius.main() at several widths.
+	// The tree is generated for the widest frame. The per-pixel search costs about the same per pixel at any width, while BlockRenderer should cost less per pixel as the width grows, since boundaries take up less of the image.
+	static void benchBlock() {
+		SgndAlgndRectangle viewport = new SgndAlgndRectangle(
+			new Point(-0.5, -1f/3 * Math.sqrt(3)),
+			new Point( 0.5,  1f/6 * Math.sqrt(3))
+		).translated(new Vector(0.155, 0.19985)).zoomed(1.5);
+		
+		ApolloniusGrain root = buildTree(0);
+		root.calculateChildrenToGranularity(viewport.width() / 2048, viewport);
+		
+		try (TiledRenderer tiles = new TiledRenderer(32, 1, true)) {
+			for (int width : new int[] {512, 1024, 2048}) {
+				int height = (int) (width / (float) viewport.aspectRatio());
+				
+				measure(String.format("getContainmentCircle, hint, %d px", width), width * height, () -> tiles.render(root, width, height, viewport).getRGB(0, 0));
+				measure(String.format("BlockRenderer, %d px", width), width * height, () -> BlockRenderer.render(tiles, root, width, height, viewport).getRGB(0, 0));
+			}
+		}
+	}
+	
+	// Compares ImageIO against PngWriter on one thread and on all of them, encoding the first frame of Apollonius.main() to memory.
+	// Allocation by PngWriter's own threads is not counted.
+	static void benchPng() {
+		SgndAlgndRectangle viewport = new SgndAlgndRectangle(
+			new Point(-0.5, -1f/3 * Math.sqrt(3)),
+			new Point( 0.5,  1f/6 * Math.sqrt(3))
+		).translated(new Vector(0.155, 0.19985)).zoomed(1.5);
+		
+		int width = 1024;
+		int height = (int) (width / (float) viewport.aspectRatio());
+		
+		ApolloniusGrain root = buildTree(0);
+		root.calculateChildrenToGranularity(viewport.width() / width, viewport);
+		BufferedImage image = Apollonius.render(root, width, height, viewport);
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		int threads = Runtime.getRuntime().availableProcessors();
+		
+		try (PngWriter single = new PngWriter(6, 1); PngWriter parallel = new PngWriter(6, threads)) {
+			measure("ImageIO.write", 1, () -> encode(out, () -> ImageIO.write(image, "png", out)));
+			measure("PngWriter, 1 thread", 1, () -> encode(out, () -> single.write(image, out)));
+			measure(String.format("PngWriter, %d threads", threads), 1, () -> encode(out, () -> parallel.write(image, out)));
+		}
+	}
+	
+	interface Encoding {
+		void run() throws IOException;
+	}
+	
+	// Runs the encoding into the emptied stream, returning the size of the result.
+	static double encode(ByteArrayOutputStream out, Encoding encoding) {
+		out.reset();
+		try {
+			encoding.run();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		
+		return out.size();
+	}
+	
+	// A unit of benchmarked work. Returns a value derived from its results, so the JIT cannot discard them.
+	interface Work {
+		double run();
+	}
+	
+	// Runs the work until warm, then times it and counts the bytes it allocates. Prints both per operation, where the work performs the passed number of operations per run.
+	static void measure(String label, int operations_per_run, Work work) {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread_id = Thread.currentThread().threadId();
+		long warmup_end = System.nanoTime() + 1_000_000_000L;
+		while (System.nanoTime() < warmup_end) {
+			sink += work.run();
+		}
+		
+		int runs = 0;
+		long allocated_start = threads.getThreadAllocatedBytes(thread_id);
+		long start = System.nanoTime();
+		long end = start + 2_000_000_000L;
+		long now = start;
+		while (now < end) {
+			sink += work.run();
+			runs++;
+			now = System.nanoTime();
+		}
+		long allocated = threads.getThreadAllocatedBytes(thread_id) - allocated_start;
+		
+		double operations = (double) runs * operations_per_run;
+		System.out.println(String.format("%-28s %10.2f ns/op %10.2f B/op %12.3e op/s",
+			label, (now - start) / operations, allocated / operations, operations / ((now - start) / 1E9)));
+	}
+	
+	// The scaffolding and root used by Apollonius.main(), generated to the passed depth.
+	static ApolloniusGrain buildTree(int depth) {
+		Circle A = new Circle(new Point( 0,  2.0/3*Math.sqrt(3)), 1);
+		Circle B = new Circle(new Point(-1, -1.0/3*Math.sqrt(3)), 1);
+		Circle C = new Circle(new Point( 1, -1.0/3*Math.sqrt(3)), 1);
+		
+		ApolloniusGrain root = new ApolloniusGrain(A, B, C, 2);
+		root.calculateChildrenToDepth(depth);
+		
+		return root;
+	}
+	
+	// Collects the parent, contributors and opposite of every child in the tree below the passed grain.
+	static void collectTriples(ApolloniusGrain grain, ArrayList<Circle[]> triples) {
+		if (grain.child_a == null) return;
+		
+		triples.add(new Circle[] {grain.circle(), grain.parent.circle(), grain.contributor_a.circle(), grain.contributor_b.circle()});
+		triples.add(new Circle[] {grain.circle(), grain.parent.circle(), grain.contributor_b.circle(), grain.contributor_a.circle()});
+		triples.add(new Circle[] {grain.circle(), grain.contributor_a.circle(), grain.contributor_b.circle(), grain.parent.circle()});
+		
+		collectTriples(grain.child_a, triples);
+		collectTriples(grain.child_b, triples);
+		collectTriples(grain.child_c, triples);
+	}
+}
@@ -0,0 +1,141 @@
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import ekobadd.geometry.*;
+
+// Renders the fractal by classifying whole blocks of pixels against the tree at once, splitting only the blocks which straddle a boundary.
+// Each tile of a TiledRenderer starts out as one block. The search of the per-pixel renderers is carried out for the rectangle spanned by the block's samples: at each circle and dart it passes, the rectangle is found to lie either wholly inside or wholly outside.
+// A block whose search ends in a circle, or in no circle at all, is filled with that color one row at a time. A block that straddles the edge of a circle or a dart is split into quarters, which resume the search from where it stopped.
+// Single pixels are searched with the exact tests, so the work done grows with the length of the boundaries in pixels rather than with the area of the image.
+// The rectangle tests allow for rounding, so a block is only filled if each of its samples would have taken the same path one at a time. The output is the same as that of Apollonius.render().
+class BlockRenderer {
+	// The scaffolding, tested in this order before the root, as by ApolloniusGrain.getContainmentCircle(Point, boolean).
+	private final ApolloniusGrain[] scaffolding;
+	private final ApolloniusGrain root;
+	
+	// Sample positions of each column and row.
+	private final double[] sample_x;
+	private final double[] sample_y;
+	
+	private BlockRenderer(ApolloniusGrain root, int width, int height, SgndAlgndRectangle viewport) {
+		this.scaffolding = new ApolloniusGrain[] {root.parent, root.contributor_a, root.contributor_b};
+		this.root = root;
+		
+		this.sample_x = TiledRenderer.sampleColumns(viewport, width);
+		this.sample_y = TiledRenderer.sampleRows(viewport, height);
+	}
+	
+	public static BufferedImage render(TiledRenderer tiles, ApolloniusGrain root, int width, int height, SgndAlgndRectangle viewport) {
+		BlockRenderer renderer = new BlockRenderer(root, width, height, viewport);
+		
+		return tiles.render(width, height, (pixels, w, h, x_start, y_start, x_end, y_end) -> {
+			renderer.shadeBlock(pixels, w, x_start, y_start, x_end, y_end, 0, renderer.root);
+		});
+	}
+	
+	// Fills in the pixels of [x_start, x_end) x [y_start, y_end), resuming the search after the first num_scaffolding scaffolding circles, at the passed grain.
+	// Every sample of the block must already have been found to take the same path that far.
+	private void shadeBlock(int[] pixels, int width, int x_start, int y_start, int x_end, int y_end, int num_scaffolding, ApolloniusGrain grain) {
+		if (x_end - x_start == 1 && y_end - y_start == 1) {
+			pixels[y_start * width + x_start] = TiledRenderer.shade(search(new Point(sample_x[x_start], sample_y[y_start]), num_scaffolding, grain));
+			return;
+		}
+		
+		// Samples are in decreasing order along an axis the viewport is flipped on, so take the bounds from both ends.
+		double left   = Math.min(sample_x[x_start], sample_x[x_end - 1]);
+		double right  = Math.max(sample_x[x_start], sample_x[x_end - 1]);
+		double bottom = Math.min(sample_y[y_start], sample_y[y_end - 1]);
+		double top    = Math.max(sample_y[y_start], sample_y[y_end - 1]);
+		
+		for (; num_scaffolding < scaffolding.length; num_scaffolding++) {
+			Circle circle = scaffolding[num_scaffolding].circle();
+			
+			if (circle.containsAll(left, bottom, right, top)) {
+				fill(pixels, width, x_start, y_start, x_end, y_end, TiledRenderer.shade(scaffolding[num_scaffolding]));
+				return;
+			}
+			
+			if (!circle.containsNone(left, bottom, right, top)) {
+				split(pixels, width, x_start, y_start, x_end, y_end, num_scaffolding, grain);
+				return;
+			}
+		}
+		
+		descend:
+		while (true) {
+			Circle circle = grain.circle();
+			
+			if (circle.containsAll(left, bottom, right, top)) {
+				fill(pixels, width, x_start, y_start, x_end, y_end, TiledRenderer.shade(grain));
+				return;
+			}
+			
+			if (!circle.containsNone(left, bottom, right, top)) {
+				split(pixels, width, x_start, y_start, x_end, y_end, num_scaffolding, grain);
+				return;
+			}
+			
+			if (grain.child_a == null) break;
+			
+			// The first dart holding the whole block is the one every sample would have descended into. A dart holding only part of it splits the block.
+			for (int i = 0; i < 3; i++) {
+				ApolloniusGrain child = i == 0 ? grain.child_a : i == 1 ? grain.child_b : grain.child_c;
+				PreparedTriangle dart = child.getDartBounds();
+				
+				if (dart.containsAll(left, bottom, right, top)) {
+					grain = child;
+					continue descend;
+				}
+				
+				if (!dart.containsNone(left, bottom, right, top)) {
+					split(pixels, width, x_start, y_start, x_end, y_end, num_scaffolding, grain);
+					return;
+				}
+			}
+			
+			break;
+		}
+		
+		// No circle contains any sample of the block.
+		fill(pixels, width, x_start, y_start, x_end, y_end, TiledRenderer.shade(null));
+	}
+	
+	// Splits the block into quarters, or halves if it is one pixel wide or high, and shades each in turn.
+	private void split(int[] pixels, int width, int x_start, int y_start, int x_end, int y_end, int num_scaffolding, ApolloniusGrain grain) {
+		int x_middle = x_end - x_start > 1 ? (x_start + x_end) >>> 1 : x_end;
+		int y_middle = y_end - y_start > 1 ? (y_start + y_end) >>> 1 : y_end;
+		
+		shadeBlock(pixels, width, x_start, y_start, x_middle, y_middle, num_scaffolding, grain);
+		if (x_middle < x_end) shadeBlock(pixels, width, x_middle, y_start, x_end, y_middle, num_scaffolding, grain);
+		if (y_middle < y_end) shadeBlock(pixels, width, x_start, y_middle, x_middle, y_end, num_scaffolding, grain);
+		if (x_middle < x_end && y_middle < y_end) shadeBlock(pixels, width, x_middle, y_middle, x_end, y_end, num_scaffolding, grain);
+	}
+	
+	// The rest of the per-pixel search for one sample, from where its block left off. See ApolloniusGrain.getContainmentCircle(Point, boolean).
+	private ApolloniusGrain search(Point p, int num_scaffolding, ApolloniusGrain grain) {
+		for (; num_scaffolding < scaffolding.length; num_scaffolding++) {
+			if (scaffolding[num_scaffolding].contains(p)) return scaffolding[num_scaffolding];
+		}
+		
+		while (true) {
+			if (grain.contains(p)) {
+				return grain;
+			}
+			
+			if (grain.child_a == null) {
+				return null;
+			}
+			
+			if (grain.child_a.getDartBounds().contains(p)) grain = grain.child_a;
+			else if (grain.child_b.getDartBounds().contains(p)) grain = grain.child_b;
+			else if (grain.child_c.getDartBounds().contains(p)) grain = grain.child_c;
+			else return null;
+		}
+	}
+	
+	private static void fill(int[] pixels, int width, int x_start, int y_start, int x_end, int y_end, int pixel) {
+		for (int y = y_start; y < y_end; y++) {
+			Arrays.fill(pixels, y * width + x_start, y * width + x_end, pixel);
+		}
+	}
+}
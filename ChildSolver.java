@@ -0,0 +1,40 @@
+import ekobadd.geometry.*;
+
+// Finds the circle occupied by a new grain, given the three circles it must be tangent to.
+interface ChildSolver {
+	// Finds the smaller circle externally tangent to the parent and both contributors and writes its x, y and radius to out. Returns false if there is none.
+	// Each circle is passed as its origin and radius. The opposite is the other circle tangent to all three, which lets some solvers skip most of the work. Pass a NaN radius if it is unknown.
+	// Implementations must not allocate.
+	boolean solve(
+		double parent_x, double parent_y, double parent_r,
+		double a_x, double a_y, double a_r,
+		double b_x, double b_y, double b_r,
+		double opposite_x, double opposite_y, double opposite_r,
+		double[] out
+	);
+	
+	// Same as above, but returns the solution as a new circle, or null if there is none. Pass a null opposite if it is unknown.
+	// Circles in double-double mode are always solved with Apollonius.solveSmallerDescartesPrecise(), whatever the solver, and give a solution in double-double mode.
+	default Circle solve(Circle parent, Circle contributor_a, Circle contributor_b, Circle opposite) {
+		if (parent.isPrecise()) {
+			return Apollonius.solveSmallerDescartesPrecise(parent, contributor_a, contributor_b, opposite);
+		}
+		
+		double[] out = new double[3];
+		boolean solved = solve(
+			parent.origin.x, parent.origin.y, parent.radius,
+			contributor_a.origin.x, contributor_a.origin.y, contributor_a.radius,
+			contributor_b.origin.x, contributor_b.origin.y, contributor_b.radius,
+			opposite == null ? 0 : opposite.origin.x, opposite == null ? 0 : opposite.origin.y, opposite == null ? Double.NaN : opposite.radius,
+			out
+		);
+		
+		return solved ? new Circle(new Point(out[0], out[1]), out[2]) : null;
+	}
+	
+	// Solves the general problem of Apollonius with Apollonius.solveSmaller(). Ignores the opposite circle.
+	ChildSolver APOLLONIUS = (px, py, pr, ax, ay, ar, bx, by, br, ox, oy, or, out) -> Apollonius.solveSmaller(px, py, pr, ax, ay, ar, bx, by, br, out);
+	
+	// Uses the Descartes circle theorem, which assumes the three circles are mutually tangent, as they always are in the gasket.
+	ChildSolver DESCARTES = Apollonius::solveSmallerDescartes;
+}
@@ -0,0 +1,231 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import ekobadd.geometry.*;
+
+// Finds the statistics getStats() reports for a whole tree, without generating the tree.
+// Counts, areas and radii depend only on curvatures, and by the Descartes circle theorem, each grain's curvature follows from the curvatures of its parent and contributors alone.
+// Each grain is made from three mutually tangent circles, and the fourth circle tangent to all three, its opposite, is already known. It is the other solution: k = 2(k_parent + k_a + k_b) - k_opposite. This needs neither positions nor a square root.
+// A grain is therefore just four curvatures on a stack of doubles, and the walk takes no memory beyond that stack, whatever the size of the tree. This reaches layers far deeper than any tree which fits in memory.
+// The curvatures are found differently from the circles of a tree, so the results agree with ApolloniusGrain.getStats() up to rounding.
+class CurvatureStats {
+	// How many levels below the root the parallel methods fork a task for each subtree. Each level triples the number of tasks, so 6 levels make up to 729.
+	// Subtrees of grains close to the scaffolding are far deeper than the rest when walking to a granularity, so many small tasks balance better than a few large ones.
+	static final int PARALLEL_LEVELS = 6;
+	
+	// Curvatures of the scaffolding, and of the root between them.
+	private final double k_a;
+	private final double k_b;
+	private final double k_c;
+	private final double k_root;
+	
+	// Takes the scaffolding circles, as for ApolloniusGrain(Circle, Circle, Circle, long).
+	public CurvatureStats(Circle A, Circle B, Circle C) {
+		k_a = 1 / A.radius;
+		k_b = 1 / B.radius;
+		k_c = 1 / C.radius;
+		
+		// The larger of the two curvatures belongs to the root. The other belongs to the circle around all three.
+		k_root = k_a + k_b + k_c + 2*Math.sqrt(k_a*k_b + k_b*k_c + k_c*k_a);
+	}
+	
+	// Returns the statistics of the tree calculateChildrenToDepth() would generate from the root, in the format of ApolloniusGrain.getStats().
+	public double[][] getStatsToDepth(int depth) {
+		return walk(depth, 0, 0).toStats();
+	}
+	
+	// Same as getStatsToDepth(int), but walks subtrees in parallel on the passed pool. See PARALLEL_LEVELS.
+	public double[][] getStatsToDepth(int depth, ForkJoinPool pool) {
+		return pool.invoke(new Walk(k_root, k_a, k_b, k_c, 0, depth, 0, PARALLEL_LEVELS)).toStats();
+	}
+	
+	// Returns the statistics of the tree calculateChildrenToGranularity(double) would generate from the root, in the format of ApolloniusGrain.getStats().
+	public double[][] getStatsToGranularity(double min_diameter) {
+		return walk(Integer.MAX_VALUE, min_diameter, 0).toStats();
+	}
+	
+	// Same as getStatsToGranularity(double), but walks subtrees in parallel on the passed pool. See PARALLEL_LEVELS.
+	public double[][] getStatsToGranularity(double min_diameter, ForkJoinPool pool) {
+		return pool.invoke(new Walk(k_root, k_a, k_b, k_c, 0, Integer.MAX_VALUE, min_diameter, PARALLEL_LEVELS)).toStats();
+	}
+	
+	private Tally walk(int max_depth, double min_diameter, int parallel_levels) {
+		return new Walk(k_root, k_a, k_b, k_c, 0, max_depth, min_diameter, parallel_levels).compute();
+	}
+	
+	// Walks the subtree below one grain, given as its curvature and those of its parent and contributors.
+	// A grain has children if it is shallower than max_depth, and if its parent's diameter is greater than min_diameter, as calculateChildrenToGranularity() would have expanded it. The root always has children.
+	// For the first parallel_levels levels, each child's subtree is walked by a task of its own. Below that, the subtree is walked on the calling thread, using a stack of curvatures rather than recursion.
+	// Serializable only because every ForkJoinTask is. Walks are never serialized.
+	@SuppressWarnings("serial")
+	private static class Walk extends RecursiveTask<Tally> {
+		final double k;
+		final double k_parent;
+		final double k_contributor_a;
+		final double k_contributor_b;
+		final int depth;
+		
+		final int max_depth;
+		final double min_diameter;
+		final int parallel_levels;
+		
+		Walk(double k, double k_parent, double k_contributor_a, double k_contributor_b, int depth, int max_depth, double min_diameter, int parallel_levels) {
+			this.k = k;
+			this.k_parent = k_parent;
+			this.k_contributor_a = k_contributor_a;
+			this.k_contributor_b = k_contributor_b;
+			this.depth = depth;
+			
+			this.max_depth = max_depth;
+			this.min_diameter = min_diameter;
+			this.parallel_levels = parallel_levels;
+		}
+		
+		protected Tally compute() {
+			if (parallel_levels <= 0) {
+				return walkSequentially();
+			}
+			
+			Tally tally = new Tally();
+			tally.add(depth, 1 / k);
+			if (!hasChildren(depth, k_parent)) return tally;
+			
+			// The children, in the same order and with the same contributors as in ApolloniusGrain.calculateChildren().
+			Walk child_a = new Walk(2*(k + k_parent + k_contributor_a) - k_contributor_b, k, k_parent, k_contributor_a, depth + 1, max_depth, min_diameter, parallel_levels - 1);
+			Walk child_b = new Walk(2*(k + k_parent + k_contributor_b) - k_contributor_a, k, k_parent, k_contributor_b, depth + 1, max_depth, min_diameter, parallel_levels - 1);
+			Walk child_c = new Walk(2*(k + k_contributor_a + k_contributor_b) - k_parent, k, k_contributor_a, k_contributor_b, depth + 1, max_depth, min_diameter, parallel_levels - 1);
+			invokeAll(child_a, child_b, child_c);
+			
+			tally.merge(child_a.join());
+			tally.merge(child_b.join());
+			tally.merge(child_c.join());
+			return tally;
+		}
+		
+		private Tally walkSequentially() {
+			Tally tally = new Tally();
+			
+			// Each grain on the stack takes four curvatures: its own, its parent's and its contributors'.
+			double[] stack = new double[4 * 64];
+			int[] depths = new int[64];
+			int size = 0;
+			
+			stack[0] = k;
+			stack[1] = k_parent;
+			stack[2] = k_contributor_a;
+			stack[3] = k_contributor_b;
+			depths[0] = depth;
+			size++;
+			
+			while (size > 0) {
+				size--;
+				int offset = size * 4;
+				double grain = stack[offset];
+				double parent = stack[offset + 1];
+				double contributor_a = stack[offset + 2];
+				double contributor_b = stack[offset + 3];
+				int grain_depth = depths[size];
+				
+				tally.add(grain_depth, 1 / grain);
+				if (!hasChildren(grain_depth, parent)) continue;
+				
+				if (size + 3 > depths.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+					depths = Arrays.copyOf(depths, depths.length * 2);
+				}
+				
+				stack[offset     ] = 2*(grain + parent + contributor_a) - contributor_b;
+				stack[offset +  1] = grain;
+				stack[offset +  2] = parent;
+				stack[offset +  3] = contributor_a;
+				
+				stack[offset +  4] = 2*(grain + parent + contributor_b) - contributor_a;
+				stack[offset +  5] = grain;
+				stack[offset +  6] = parent;
+				stack[offset +  7] = contributor_b;
+				
+				stack[offset +  8] = 2*(grain + contributor_a + contributor_b) - parent;
+				stack[offset +  9] = grain;
+				stack[offset + 10] = contributor_a;
+				stack[offset + 11] = contributor_b;
+				
+				depths[size    ] = grain_depth + 1;
+				depths[size + 1] = grain_depth + 1;
+				depths[size + 2] = grain_depth + 1;
+				size += 3;
+			}
+			
+			return tally;
+		}
+		
+		// The root's parent is scaffolding, whose size has no bearing on whether the root is expanded.
+		private boolean hasChildren(int grain_depth, double k_grain_parent) {
+			return grain_depth < max_depth && (grain_depth == 0 || 2 / k_grain_parent > min_diameter);
+		}
+	}
+	
+	// Per-layer totals over the grains of one subtree, by depth below the root.
+	private static class Tally {
+		long[] count = new long[0];
+		double[] area = new double[0];
+		double[] radius = new double[0];
+		double[] min_radius = new double[0];
+		double[] max_radius = new double[0];
+		
+		void add(int depth, double grain_radius) {
+			if (depth >= count.length) grow(depth + 1);
+			
+			count[depth]++;
+			area[depth] += Math.PI * grain_radius * grain_radius;
+			radius[depth] += grain_radius;
+			min_radius[depth] = Math.min(min_radius[depth], grain_radius);
+			max_radius[depth] = Math.max(max_radius[depth], grain_radius);
+		}
+		
+		void merge(Tally other) {
+			if (other.count.length > count.length) grow(other.count.length);
+			
+			for (int depth = 0; depth < other.count.length; depth++) {
+				count[depth] += other.count[depth];
+				area[depth] += other.area[depth];
+				radius[depth] += other.radius[depth];
+				min_radius[depth] = Math.min(min_radius[depth], other.min_radius[depth]);
+				max_radius[depth] = Math.max(max_radius[depth], other.max_radius[depth]);
+			}
+		}
+		
+		private void grow(int min_length) {
+			int old_length = count.length;
+			int length = Math.max(min_length, old_length * 2);
+			
+			count = Arrays.copyOf(count, length);
+			area = Arrays.copyOf(area, length);
+			radius = Arrays.copyOf(radius, length);
+			min_radius = Arrays.copyOf(min_radius, length);
+			max_radius = Arrays.copyOf(max_radius, length);
+			Arrays.fill(min_radius, old_length, length, Double.POSITIVE_INFINITY);
+		}
+		
+		// Reverses the layers, so that the deepest comes first, and turns radius sums into averages.
+		double[][] toStats() {
+			int num_layers = count.length;
+			while (num_layers > 0 && count[num_layers - 1] == 0) {
+				num_layers--;
+			}
+			
+			double[][] stats = new double[5][num_layers];
+			for (int layer = 0; layer < num_layers; layer++) {
+				int to = num_layers - 1 - layer;
+				
+				stats[0][to] = count[layer];
+				stats[1][to] = area[layer];
+				stats[2][to] = min_radius[layer];
+				stats[3][to] = radius[layer] / count[layer];
+				stats[4][to] = max_radius[layer];
+			}
+			
+			return stats;
+		}
+	}
+}
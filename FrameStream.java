@@ -0,0 +1,128 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Writes frames, uncompressed, one after another into a single file or standard output, for a video encoder to consume as they are produced.
+// For example: java ... Apollonius | ffmpeg -i - out.mp4
+// Each frame is converted into a direct buffer which is reused for every frame, then written through a FileChannel.
+class FrameStream implements AutoCloseable {
+	enum Format {
+		// YUV4MPEG2, with full resolution chroma (4:4:4) in BT.601 studio range. Readable by ffmpeg, x264 and most other encoders.
+		Y4M,
+		// Binary PPMs (P6), concatenated. Readable by ffmpeg as -f image2pipe -c:v ppm.
+		PPM
+	}
+	
+	final Format format;
+	final int width;
+	final int height;
+	// Only recorded by the Y4M header.
+	final int frames_per_second;
+	
+	private final FileChannel channel;
+	
+	// Large enough for a frame along with every header which may precede it.
+	private final ByteBuffer buffer;
+	
+	private boolean stream_header_written = false;
+	
+	public FrameStream(Format format, FileChannel channel, int width, int height, int frames_per_second) {
+		this.format = format;
+		this.channel = channel;
+		this.width = width;
+		this.height = height;
+		this.frames_per_second = frames_per_second;
+		
+		this.buffer = ByteBuffer.allocateDirect(streamHeader().length + frameHeader().length + width * height * 3);
+	}
+	
+	// Streams to a file, replacing it if it exists.
+	public static FrameStream toFile(Format format, Path path, int width, int height, int frames_per_second) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		return new FrameStream(format, channel, width, height, frames_per_second);
+	}
+	
+	// Streams to standard output. Nothing else may then be printed to System.out.
+	public static FrameStream toStandardOutput(Format format, int width, int height, int frames_per_second) {
+		FileChannel channel = new FileOutputStream(FileDescriptor.out).getChannel();
+		return new FrameStream(format, channel, width, height, frames_per_second);
+	}
+	
+	public void write(BufferedImage image) throws IOException {
+		if (image.getType() != BufferedImage.TYPE_INT_RGB)
+			throw new IllegalArgumentException("Only TYPE_INT_RGB images are supported.");
+		if (image.getWidth() != width || image.getHeight() != height)
+			throw new IllegalArgumentException(String.format("Frames must be %dx%d, not %dx%d.", width, height, image.getWidth(), image.getHeight()));
+		
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		
+		buffer.clear();
+		
+		// A Y4M stream has one header at the start, followed by a short marker before each frame. Each PPM has its own header.
+		if (format == Format.PPM || !stream_header_written) {
+			buffer.put(streamHeader());
+			stream_header_written = true;
+		}
+		buffer.put(frameHeader());
+		
+		switch (format) {
+			case Y4M -> putYCbCr(pixels);
+			case PPM -> putRGB(pixels);
+		}
+		
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+	
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	private byte[] streamHeader() {
+		String header = switch (format) {
+			case Y4M -> String.format("YUV4MPEG2 W%d H%d F%d:1 Ip A1:1 C444\n", width, height, frames_per_second);
+			case PPM -> String.format("P6\n%d %d\n255\n", width, height);
+		};
+		
+		return header.getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	private byte[] frameHeader() {
+		return format == Format.Y4M ? "FRAME\n".getBytes(StandardCharsets.US_ASCII) : new byte[0];
+	}
+	
+	private void putRGB(int[] pixels) {
+		for (int pixel : pixels) {
+			buffer.put((byte) (pixel >> 16));
+			buffer.put((byte) (pixel >> 8));
+			buffer.put((byte) pixel);
+		}
+	}
+	
+	// Writes the Y, Cb and Cr planes in turn, using the usual 8-bit integer approximation of BT.601.
+	private void putYCbCr(int[] pixels) {
+		for (int pixel : pixels) {
+			int r = pixel >> 16 & 0xFF, g = pixel >> 8 & 0xFF, b = pixel & 0xFF;
+			buffer.put((byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16));
+		}
+		
+		for (int pixel : pixels) {
+			int r = pixel >> 16 & 0xFF, g = pixel >> 8 & 0xFF, b = pixel & 0xFF;
+			buffer.put((byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128));
+		}
+		
+		for (int pixel : pixels) {
+			int r = pixel >> 16 & 0xFF, g = pixel >> 8 & 0xFF, b = pixel & 0xFF;
+			buffer.put((byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128));
+		}
+	}
+}
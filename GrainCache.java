@@ -0,0 +1,126 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import ekobadd.geometry.*;
+
+// Keeps GrainSnapshots on disk between runs, one file per snapshot, so that a zoom which has already been generated can be rendered again straight away.
+// Each file holds a short header followed by the snapshot's arrays, one after another. Opening a file maps it and copies each array out in bulk, without parsing anything per grain.
+// Queries then run on plain arrays, exactly as fast as for a snapshot taken from a tree.
+// The header records everything that decides the snapshot's contents: the seed, the solver, the scaffolding, and the frames it serves.
+// A file is only used if all of these match exactly. Otherwise, the snapshot is generated as usual, and replaces the file.
+class GrainCache {
+	private static final int MAGIC = 0x43524741; // "AGRC" in little-endian.
+	private static final int VERSION = 2;
+	
+	// Magic and version, seed, solver and number of frames, scaffolding, first viewport, first pixel width and zoom per frame, then the length of the data.
+	private static final int KEY_SIZE = 4 + 4 + 8 + 4 + 4 + 9 * 8 + 4 * 8 + 8 + 8;
+	private static final int HEADER_SIZE = KEY_SIZE + 8;
+	
+	final Path directory;
+	
+	private final long seed;
+	private final int solver_id;
+	private final Circle[] scaffolding;
+	
+	// The scaffolding circles are the ones the tree was first made from, not those of whichever root a snapshot was taken from.
+	public GrainCache(Path directory, long seed, ChildSolver solver, Circle A, Circle B, Circle C) throws IOException {
+		if (A.isPrecise() || B.isPrecise() || C.isPrecise())
+			throw new IllegalArgumentException("Trees in double-double mode cannot be cached.");
+		
+		this.directory = directory;
+		this.seed = seed;
+		this.solver_id = solverId(solver);
+		this.scaffolding = new Circle[] {A, B, C};
+		
+		Files.createDirectories(directory);
+	}
+	
+	// Maps the snapshot cached for the frame with the passed index, if it serves the passed frames: num_frames frames, starting with the passed viewport and pixel width, each zoomed from the last by zoom_per_frame.
+	// Returns null if there is no such file, or if it was made for anything else.
+	public GrainSnapshot open(int first_frame, SgndAlgndRectangle viewport, double pixel_width, double zoom_per_frame, int num_frames) throws IOException {
+		Path path = path(first_frame);
+		if (!Files.isRegularFile(path)) return null;
+		
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) return null;
+			
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			
+			ByteBuffer key = key(viewport, pixel_width, zoom_per_frame, num_frames);
+			if (key.mismatch(mapped.slice(0, KEY_SIZE)) != -1) return null;
+			
+			long data_length = mapped.order(ByteOrder.LITTLE_ENDIAN).getLong(KEY_SIZE);
+			if (data_length != channel.size() - HEADER_SIZE) return null;
+			
+			return new GrainSnapshot(mapped.slice(HEADER_SIZE, (int) data_length));
+		}
+	}
+	
+	// Writes the passed snapshot for the frame with the passed index, and the rest of the frames described as for open().
+	// The file is written in full under a temporary name first, so that a run which is cut short never leaves a partial file behind.
+	public void write(int first_frame, GrainSnapshot snapshot, SgndAlgndRectangle viewport, double pixel_width, double zoom_per_frame, int num_frames) throws IOException {
+		Path path = path(first_frame);
+		Path temporary = path.resolveSibling(path.getFileName() + ".partial");
+		
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.put(key(viewport, pixel_width, zoom_per_frame, num_frames));
+		header.putLong((long) snapshot.size * GrainSnapshot.GRAIN_BYTES);
+		header.flip();
+		
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			snapshot.write(channel);
+		}
+		
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	private Path path(int first_frame) {
+		return directory.resolve(String.format("%05d.grains", first_frame));
+	}
+	
+	// The part of the header which must match for a file to be used.
+	private ByteBuffer key(SgndAlgndRectangle viewport, double pixel_width, double zoom_per_frame, int num_frames) {
+		if (viewport.isPrecise())
+			throw new IllegalArgumentException("Frames in double-double mode cannot be cached.");
+		
+		ByteBuffer key = ByteBuffer.allocate(KEY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		key.putInt(MAGIC);
+		key.putInt(VERSION);
+		key.putLong(seed);
+		key.putInt(solver_id);
+		key.putInt(num_frames);
+		
+		for (Circle circle : scaffolding) {
+			key.putDouble(circle.origin.x);
+			key.putDouble(circle.origin.y);
+			key.putDouble(circle.radius);
+		}
+		
+		key.putDouble(viewport.a.x);
+		key.putDouble(viewport.a.y);
+		key.putDouble(viewport.b.x);
+		key.putDouble(viewport.b.y);
+		key.putDouble(pixel_width);
+		key.putDouble(zoom_per_frame);
+		
+		return key.flip();
+	}
+	
+	// Solvers are lambdas, which have no names to record, so only the built-in ones are supported.
+	private static int solverId(ChildSolver solver) {
+		if (solver == ChildSolver.APOLLONIUS) return 1;
+		if (solver == ChildSolver.DESCARTES) return 2;
+		
+		throw new IllegalArgumentException("Only trees made with the built-in solvers can be cached.");
+	}
+}
@@ -0,0 +1,208 @@
+import java.util.Arrays;
+
+import ekobadd.geometry.*;
+
+// A grid of cells over the pixels of one frame, each listing the circles which may contain the samples of its pixels, so that each pixel only tests those instead of searching the tree.
+// The grid is built by walking the tree once, as ScanRenderer does, skipping subtrees whose darts cover no sample. Each circle left is listed in every cell its bounds overlap.
+// Within each cell, the scaffolding comes first and every grain comes before its descendants, as the per-pixel search would meet them. Since circles never overlap, the first one listed which contains a sample is the one the search would find, and the output is the same.
+// A grid is built for one frame at a time. update() rebuilds it for the next, reusing its arrays of circles and cells, which only grow.
+// It is rebuilt in full rather than patched from the last frame's: each zoom step moves every sample, which changes the cells nearly every circle overlaps, and the walk is cheap next to rendering.
+class GrainGrid {
+	static final int NONE = -1;
+	
+	// Width and height of a cell, in pixels.
+	final int cell_size;
+	
+	int width;
+	int height;
+	
+	private int cells_x;
+	private int cells_y;
+	
+	// Sample positions of each column and row. See TiledRenderer.sampleColumns().
+	private double[] sample_x = new double[0];
+	private double[] sample_y = new double[0];
+	
+	// The circles listed in any cell, in the order they were found.
+	private double[] x = new double[1024];
+	private double[] y = new double[1024];
+	private double[] r = new double[1024];
+	private int[] shade = new int[1024];
+	private int num_circles;
+	
+	// The cells overlapped by each circle: the first and last column and row of cells, inclusive.
+	private int[] first_cell_x = new int[1024];
+	private int[] last_cell_x = new int[1024];
+	private int[] first_cell_y = new int[1024];
+	private int[] last_cell_y = new int[1024];
+	
+	// The circles of cell i are cell_circles[cell_start[i]] through cell_circles[cell_start[i + 1] - 1].
+	private int[] cell_start = new int[1];
+	private int[] cell_circles = new int[1024];
+	
+	// Grains still to be visited while walking the tree.
+	private ApolloniusGrain[] stack = new ApolloniusGrain[128];
+	
+	public GrainGrid(int cell_size) {
+		if (cell_size < 1)
+			throw new IllegalArgumentException("Cells must be at least one pixel across.");
+		
+		this.cell_size = cell_size;
+	}
+	
+	// Rebuilds the grid for a frame of the tree below the passed root, which must not change until the frame has been rendered.
+	public void update(ApolloniusGrain root, int width, int height, SgndAlgndRectangle viewport) {
+		this.width = width;
+		this.height = height;
+		this.cells_x = (width + cell_size - 1) / cell_size;
+		this.cells_y = (height + cell_size - 1) / cell_size;
+		
+		sample_x = TiledRenderer.sampleColumns(viewport, width);
+		sample_y = TiledRenderer.sampleRows(viewport, height);
+		
+		num_circles = 0;
+		addCircle(root.parent);
+		addCircle(root.contributor_a);
+		addCircle(root.contributor_b);
+		
+		// Depth first and in order, so that each grain is added before its descendants. The root's dart is never tested by the per-pixel search, so neither is it used for culling here.
+		int stack_size = 0;
+		stack[stack_size++] = root;
+		while (stack_size > 0) {
+			ApolloniusGrain grain = stack[--stack_size];
+			stack[stack_size] = null;
+			addCircle(grain);
+			
+			if (grain.child_a == null) continue;
+			
+			if (stack_size + 3 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			
+			if (coversSample(grain.child_c)) stack[stack_size++] = grain.child_c;
+			if (coversSample(grain.child_b)) stack[stack_size++] = grain.child_b;
+			if (coversSample(grain.child_a)) stack[stack_size++] = grain.child_a;
+		}
+		
+		fillCells();
+	}
+	
+	// Whether the bounds of the grain's dart cover any sample, as in ScanRenderer. If not, neither the grain nor its descendants can contain one.
+	private boolean coversSample(ApolloniusGrain grain) {
+		Triangle dart = grain.getDartBounds();
+		
+		double left   = Math.min(dart.a.x, Math.min(dart.b.x, dart.c.x));
+		double right  = Math.max(dart.a.x, Math.max(dart.b.x, dart.c.x));
+		double bottom = Math.min(dart.a.y, Math.min(dart.b.y, dart.c.y));
+		double top    = Math.max(dart.a.y, Math.max(dart.b.y, dart.c.y));
+		
+		return ScanRenderer.firstSampleWithin(sample_x, left, right) <= ScanRenderer.lastSampleWithin(sample_x, left, right)
+			&& ScanRenderer.firstSampleWithin(sample_y, bottom, top) <= ScanRenderer.lastSampleWithin(sample_y, bottom, top);
+	}
+	
+	// Adds the grain's circle, along with the cells its bounds overlap. Circles which overlap no cells are left out.
+	private void addCircle(ApolloniusGrain grain) {
+		Circle circle = grain.circle();
+		double origin_x = circle.origin.x;
+		double origin_y = circle.origin.y;
+		double radius = circle.radius;
+		
+		// Rounding could place a sample just outside of the computed bounds while it still passes the exact test, so look one column and row further either way.
+		int first_column = Math.max(ScanRenderer.firstSampleWithin(sample_x, origin_x - radius, origin_x + radius) - 1, 0);
+		int last_column = Math.min(ScanRenderer.lastSampleWithin(sample_x, origin_x - radius, origin_x + radius) + 1, width - 1);
+		int first_row = Math.max(ScanRenderer.firstSampleWithin(sample_y, origin_y - radius, origin_y + radius) - 1, 0);
+		int last_row = Math.min(ScanRenderer.lastSampleWithin(sample_y, origin_y - radius, origin_y + radius) + 1, height - 1);
+		
+		if (first_column > last_column || first_row > last_row) return;
+		
+		if (num_circles == x.length) {
+			int length = x.length * 2;
+			x = Arrays.copyOf(x, length);
+			y = Arrays.copyOf(y, length);
+			r = Arrays.copyOf(r, length);
+			shade = Arrays.copyOf(shade, length);
+			first_cell_x = Arrays.copyOf(first_cell_x, length);
+			last_cell_x = Arrays.copyOf(last_cell_x, length);
+			first_cell_y = Arrays.copyOf(first_cell_y, length);
+			last_cell_y = Arrays.copyOf(last_cell_y, length);
+		}
+		
+		int i = num_circles++;
+		x[i] = origin_x;
+		y[i] = origin_y;
+		r[i] = radius;
+		shade[i] = grain.datum & 0xFFFFFF;
+		
+		first_cell_x[i] = first_column / cell_size;
+		last_cell_x[i] = last_column / cell_size;
+		first_cell_y[i] = first_row / cell_size;
+		last_cell_y[i] = last_row / cell_size;
+	}
+	
+	// Lists each circle in the cells it overlaps, in the order the circles were added. The cells are counted first, so that the lists can be packed into one array.
+	private void fillCells() {
+		int num_cells = cells_x * cells_y;
+		if (cell_start.length < num_cells + 1) cell_start = new int[num_cells + 1];
+		Arrays.fill(cell_start, 0, num_cells + 1, 0);
+		
+		// An empty frame has no cells, and so no circles to list.
+		if (num_cells == 0) return;
+		
+		for (int i = 0; i < num_circles; i++) {
+			for (int cell_y = first_cell_y[i]; cell_y <= last_cell_y[i]; cell_y++) {
+				for (int cell_x = first_cell_x[i]; cell_x <= last_cell_x[i]; cell_x++) {
+					cell_start[cell_y * cells_x + cell_x]++;
+				}
+			}
+		}
+		
+		// Each cell's count becomes the end of its list.
+		for (int cell = 1; cell < num_cells; cell++) {
+			cell_start[cell] += cell_start[cell - 1];
+		}
+		cell_start[num_cells] = cell_start[num_cells - 1];
+		
+		if (cell_circles.length < cell_start[num_cells]) {
+			cell_circles = new int[Math.max(cell_start[num_cells], cell_circles.length * 2)];
+		}
+		
+		// The lists are filled from their ends, with the circles taken backwards, so that they come out in order and each end is moved back to the list's start.
+		for (int i = num_circles - 1; i >= 0; i--) {
+			for (int cell_y = first_cell_y[i]; cell_y <= last_cell_y[i]; cell_y++) {
+				for (int cell_x = first_cell_x[i]; cell_x <= last_cell_x[i]; cell_x++) {
+					cell_circles[--cell_start[cell_y * cells_x + cell_x]] = i;
+				}
+			}
+		}
+	}
+	
+	// Returns the index of the first circle listed in the pixel's cell which contains the pixel's sample, or NONE.
+	public int getContainmentCircle(int column, int row) {
+		double px = sample_x[column];
+		double py = sample_y[row];
+		
+		int cell = row / cell_size * cells_x + column / cell_size;
+		int end = cell_start[cell + 1];
+		for (int j = cell_start[cell]; j < end; j++) {
+			int i = cell_circles[j];
+			
+			// The same test as Circle.contains().
+			double dx = px - x[i];
+			double dy = py - y[i];
+			if (dx*dx + dy*dy < r[i]*r[i]) return i;
+		}
+		
+		return NONE;
+	}
+	
+	// Returns the color of the passed circle, or black for NONE.
+	public int shade(int circle) {
+		return circle == NONE ? 0 : shade[circle];
+	}
+	
+	// Average number of circles listed per cell, which is roughly how many each pixel may have to test.
+	public double getCirclesPerCell() {
+		int num_cells = cells_x * cells_y;
+		return num_cells == 0 ? 0 : (double) cell_start[num_cells] / num_cells;
+	}
+}
@@ -0,0 +1,320 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+import ekobadd.geometry.*;
+
+// A read-only copy of an ApolloniusGrain tree, laid out in flat arrays like a GrainStore.
+// Every field is final and nothing is changed after construction, so any number of threads may query a snapshot at once, while the tree it was taken from goes on growing and being pruned.
+// A snapshot can serve several frames of a zoom. Each query is passed the pixel width of its frame and only descends as far as calculateChildrenToGranularity() with that width would have generated.
+// Rendering a frame from a snapshot taken at a finer granularity therefore gives the same image as rendering it from the tree as it stood for that frame.
+// Snapshots can be written out, and read back in later by copying each array in bulk. See GrainCache.
+final class GrainSnapshot {
+	static final int NONE = -1;
+	
+	// Number of values in dart for each grain: the three vertices and the three edge normals of its PreparedTriangle, followed by its bounding box as min x, max x, min y and max y.
+	private static final int DART_STRIDE = 16;
+	
+	// Indices 0 through 2 hold the scaffolding. The root is always at index 3.
+	static final int ROOT = 3;
+	
+	// Bytes taken up by each grain in the format of write(): four doubles and five ints, along with its dart.
+	static final int GRAIN_BYTES = 4 * 8 + DART_STRIDE * 8 + 5 * 4;
+	
+	final int size;
+	
+	private final double[] x;
+	private final double[] y;
+	private final double[] r;
+	private final int[] datum;
+	
+	private final int[] parent;
+	private final int[] contributor_a;
+	private final int[] contributor_b;
+	private final int[] child; // Index of the first of three consecutive children, or NONE for leaves.
+	
+	// Diameter of each grain's parent, which decides whether calculateChildrenToGranularity() would have gone on to expand the grain. Infinite for the root, which is always expanded.
+	private final double[] parent_diameter;
+	
+	// Copied from the grain's PreparedTriangle, so that dart tests perform exactly the same arithmetic. Unused for the scaffolding.
+	private final double[] dart;
+	
+	// Copies every grain reachable from the passed root, along with the root's parent and contributors.
+	// The tree must not be changed while it is being copied.
+	public GrainSnapshot(ApolloniusGrain root) {
+		if (!root.isRoot())
+			throw new IllegalArgumentException("Snapshots must be taken from the root.");
+		
+		// Breadth-first, so that each set of three children stays contiguous.
+		ApolloniusGrain[] grains = new ApolloniusGrain[1024];
+		grains[0] = root.parent;
+		grains[1] = root.contributor_a;
+		grains[2] = root.contributor_b;
+		grains[ROOT] = root;
+		
+		int num_grains = 4;
+		for (int i = ROOT; i < num_grains; i++) {
+			ApolloniusGrain grain = grains[i];
+			if (grain.child_a == null) continue;
+			
+			if (num_grains + 3 > grains.length) {
+				grains = Arrays.copyOf(grains, grains.length * 2);
+			}
+			
+			grains[num_grains++] = grain.child_a;
+			grains[num_grains++] = grain.child_b;
+			grains[num_grains++] = grain.child_c;
+		}
+		
+		size = num_grains;
+		
+		x = new double[size];
+		y = new double[size];
+		r = new double[size];
+		datum = new int[size];
+		parent = new int[size];
+		contributor_a = new int[size];
+		contributor_b = new int[size];
+		child = new int[size];
+		parent_diameter = new double[size];
+		dart = new double[size * DART_STRIDE];
+		
+		// Parents come before their children, so each grain's parent index has been filled in by the time it is copied.
+		// Contributors are always ancestors or scaffolding, so they are found by walking up from the parent.
+		int next_child = ROOT + 1;
+		
+		for (int i = 0; i < size; i++) {
+			ApolloniusGrain grain = grains[i];
+			
+			Circle circle = grain.circle();
+			x[i] = circle.origin.x;
+			y[i] = circle.origin.y;
+			r[i] = circle.radius;
+			datum[i] = grain.datum;
+			
+			child[i] = NONE;
+			if (i < ROOT) {
+				parent[i] = NONE;
+				contributor_a[i] = NONE;
+				contributor_b[i] = NONE;
+				parent_diameter[i] = Double.POSITIVE_INFINITY;
+				continue;
+			}
+			
+			if (grain.child_a != null) {
+				child[i] = next_child;
+				next_child += 3;
+				
+				for (int j = 0; j < 3; j++) {
+					parent[child[i] + j] = i;
+				}
+			}
+			
+			if (i == ROOT) {
+				parent[i] = 0;
+				contributor_a[i] = 1;
+				contributor_b[i] = 2;
+				parent_diameter[i] = Double.POSITIVE_INFINITY;
+			}
+			else {
+				contributor_a[i] = find(grains, parent[i], grain.contributor_a);
+				contributor_b[i] = find(grains, parent[i], grain.contributor_b);
+				parent_diameter[i] = grain.parent.diameter();
+			}
+			
+			PreparedTriangle bounds = grain.getDartBounds();
+			int offset = i * DART_STRIDE;
+			dart[offset     ] = bounds.a.x;
+			dart[offset +  1] = bounds.a.y;
+			dart[offset +  2] = bounds.b.x;
+			dart[offset +  3] = bounds.b.y;
+			dart[offset +  4] = bounds.c.x;
+			dart[offset +  5] = bounds.c.y;
+			for (int edge = 0; edge < 3; edge++) {
+				dart[offset + 6 + edge * 2    ] = bounds.edgeNormalX(edge);
+				dart[offset + 6 + edge * 2 + 1] = bounds.edgeNormalY(edge);
+			}
+			dart[offset + 12] = bounds.minX();
+			dart[offset + 13] = bounds.maxX();
+			dart[offset + 14] = bounds.minY();
+			dart[offset + 15] = bounds.maxY();
+		}
+	}
+	
+	// Reads a snapshot from the passed buffer, which must hold exactly what write() wrote, such as a file mapped by GrainCache.
+	// Each array is copied out in one go, so this costs little more than copying the memory.
+	GrainSnapshot(ByteBuffer data) {
+		if (data.remaining() % GRAIN_BYTES != 0)
+			throw new IllegalArgumentException("Snapshot data must hold a whole number of grains.");
+		
+		size = data.remaining() / GRAIN_BYTES;
+		
+		x = new double[size];
+		y = new double[size];
+		r = new double[size];
+		datum = new int[size];
+		parent = new int[size];
+		contributor_a = new int[size];
+		contributor_b = new int[size];
+		child = new int[size];
+		parent_diameter = new double[size];
+		dart = new double[size * DART_STRIDE];
+		
+		ByteBuffer in = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+		read(in, x);
+		read(in, y);
+		read(in, r);
+		read(in, parent_diameter);
+		read(in, dart);
+		read(in, datum);
+		read(in, parent);
+		read(in, contributor_a);
+		read(in, contributor_b);
+		read(in, child);
+	}
+	
+	// Writes the arrays to the passed channel one after another, as little-endian doubles and ints.
+	public void write(WritableByteChannel channel) throws IOException {
+		if (size > Integer.MAX_VALUE / GRAIN_BYTES)
+			throw new IOException("The snapshot is too large to be written.");
+		
+		ByteBuffer out = ByteBuffer.allocateDirect(size * GRAIN_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		write(out, x);
+		write(out, y);
+		write(out, r);
+		write(out, parent_diameter);
+		write(out, dart);
+		write(out, datum);
+		write(out, parent);
+		write(out, contributor_a);
+		write(out, contributor_b);
+		write(out, child);
+		
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+	}
+	
+	private static void read(ByteBuffer in, double[] values) {
+		in.asDoubleBuffer().get(values);
+		in.position(in.position() + values.length * 8);
+	}
+	
+	private static void read(ByteBuffer in, int[] values) {
+		in.asIntBuffer().get(values);
+		in.position(in.position() + values.length * 4);
+	}
+	
+	private static void write(ByteBuffer out, double[] values) {
+		out.asDoubleBuffer().put(values);
+		out.position(out.position() + values.length * 8);
+	}
+	
+	private static void write(ByteBuffer out, int[] values) {
+		out.asIntBuffer().put(values);
+		out.position(out.position() + values.length * 4);
+	}
+	
+	// Finds the index of the passed grain among the ancestors of the grain at the passed index, or among the scaffolding.
+	private int find(ApolloniusGrain[] grains, int from, ApolloniusGrain target) {
+		for (int i = from; i != NONE; i = parent[i]) {
+			if (grains[i] == target) return i;
+		}
+		
+		for (int i = 0; i < ROOT; i++) {
+			if (grains[i] == target) return i;
+		}
+		
+		throw new Error("Invalid state. A contributor is neither an ancestor nor scaffolding.");
+	}
+	
+	// Returns the index of the grain whose circle contains the passed point, or NONE.
+	// Performs the same search as ApolloniusGrain.getContainmentCircle(), except that grains whose parents are no larger than min_diameter are treated as leaves.
+	// Pass zero to search the whole snapshot.
+	public int getContainmentCircle(double px, double py, double min_diameter) {
+		if (contains(0, px, py)) return 0;
+		if (contains(1, px, py)) return 1;
+		if (contains(2, px, py)) return 2;
+		
+		return descend(ROOT, px, py, min_diameter, null);
+	}
+	
+	// Creates a hint for getContainmentCircle(double, double, double, int[]).
+	// It holds the deepest grain whose dart contained the last point, and the grain returned by the last query.
+	// A hint must only be used for queries with the same min_diameter.
+	public int[] newHint() {
+		return new int[] {ROOT, NONE};
+	}
+	
+	// Same as getContainmentCircle(double, double, double), but starts from where the last query with the same hint ended.
+	// See GrainStore.getContainmentCircle(double, double, int[]).
+	public int getContainmentCircle(double px, double py, double min_diameter, int[] hint) {
+		if (hint[1] != NONE && contains(hint[1], px, py)) {
+			return hint[1];
+		}
+		
+		int start = hint[0];
+		while (start != ROOT && !dartContains(start, px, py)) {
+			start = parent[start];
+		}
+		
+		if (contains(parent[start], px, py)       ) return hint[1] = parent[start];
+		if (contains(contributor_a[start], px, py)) return hint[1] = contributor_a[start];
+		if (contains(contributor_b[start], px, py)) return hint[1] = contributor_b[start];
+		
+		return hint[1] = descend(start, px, py, min_diameter, hint);
+	}
+	
+	// Searches down from the passed grain. If a hint is passed, the deepest grain reached is recorded in it.
+	private int descend(int grain, double px, double py, double min_diameter, int[] hint) {
+		descend:
+		while (true) {
+			if (hint != null) hint[0] = grain;
+			
+			if (contains(grain, px, py)) {
+				return grain;
+			}
+			
+			// Past this point, the frame's own tree would have had no children.
+			if (child[grain] == NONE || parent_diameter[grain] <= min_diameter) {
+				return NONE;
+			}
+			
+			int first = child[grain];
+			for (int i = 0; i < 3; i++) {
+				if (dartContains(first + i, px, py)) {
+					grain = first + i;
+					continue descend;
+				}
+			}
+			
+			return NONE;
+		}
+	}
+	
+	// Returns the color of the passed grain, or black for NONE.
+	public int shade(int grain) {
+		return grain == NONE ? 0 : datum[grain] & 0xFFFFFF;
+	}
+	
+	public boolean contains(int grain, double px, double py) {
+		double dx = px - x[grain];
+		double dy = py - y[grain];
+		
+		return dx*dx + dy*dy < r[grain]*r[grain];
+	}
+	
+	// Same as PreparedTriangle.contains() on the grain's dart bounds.
+	public boolean dartContains(int grain, double px, double py) {
+		int offset = grain * DART_STRIDE;
+		
+		if (px < dart[offset + 12] || px > dart[offset + 13] || py < dart[offset + 14] || py > dart[offset + 15]) return false;
+		
+		return dart[offset + 6 ] * (px - dart[offset    ]) + dart[offset + 7 ] * (py - dart[offset + 1]) >= 0
+			&& dart[offset + 8 ] * (px - dart[offset + 2]) + dart[offset + 9 ] * (py - dart[offset + 3]) >= 0
+			&& dart[offset + 10] * (px - dart[offset + 4]) + dart[offset + 11] * (py - dart[offset + 5]) >= 0;
+	}
+}
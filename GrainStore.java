@@ -0,0 +1,577 @@
+import java.util.Arrays;
+
+import ekobadd.geometry.*;
+
+// Holds a whole grain tree in parallel arrays of primitives instead of a graph of ApolloniusGrain objects.
+// A grain is identified by its index into the arrays. The root and its parent and contributors (the scaffolding) always come first.
+// The three children of a grain are stored next to one another, so only the index of the first is recorded.
+// A grain costs 184 bytes here, most of it its dart, compared to well over 100 bytes spread across the ApolloniusGrain, Circle and Point objects otherwise.
+// Each grain's datum is derived from its path hash just as in an equivalent ApolloniusGrain tree, so both render identically. See ApolloniusGrain.rootPathHash().
+class GrainStore {
+	static final int NONE = -1;
+	
+	private static final int DART_STRIDE = 16;
+	
+	double[] x;
+	double[] y;
+	double[] r;
+	int[] datum;
+	int[] depth;
+	long[] path_hash;
+	
+	int[] parent;
+	int[] contributor_a;
+	int[] contributor_b;
+	int[] child; // Index of the first of three consecutive children, or NONE for leaves.
+	
+	// For each grain, DART_STRIDE values describing its dart as a PreparedTriangle would: the three vertices, the three edge normals, then the widened bounding box as min x, max x, min y and max y.
+	// Calculated once when the grain is added, so that dart tests neither take square roots nor allocate. Unused for the scaffolding.
+	double[] dart;
+	
+	int size;
+	int root;
+	
+	// Bumped by compact(), which renumbers every grain. Hints made before it are no longer valid.
+	int generation;
+	
+	// Receives each solution from the solver before it is copied into the arrays.
+	private final double[] solution = new double[3];
+	
+	// Grains still to be visited by a traversal, each followed by a value, such as the depth left to generate below it. Reused by every traversal.
+	private int[] stack = new int[128];
+	private int stack_size = 0;
+	
+	// Constructs the scaffolding from the passed circles, and the root from the scaffolding.
+	// The seed decides the data of every grain, as for ApolloniusGrain(Circle, Circle, Circle, long).
+	public GrainStore(Circle A, Circle B, Circle C, long seed) {
+		allocate(1024);
+		
+		int scaffold_a = addScaffold(A, ApolloniusGrain.scaffoldPathHash(seed, 0));
+		int scaffold_b = addScaffold(B, ApolloniusGrain.scaffoldPathHash(seed, 1));
+		int scaffold_c = addScaffold(C, ApolloniusGrain.scaffoldPathHash(seed, 2));
+		
+		root = addChild(scaffold_a, scaffold_b, scaffold_c, NONE, ApolloniusGrain.rootPathHash(seed));
+	}
+	
+	// Calculates the three children of the passed grain based on itself, its parent, and its contributors.
+	public void calculateChildren(int grain) {
+		int first = addChild(grain, parent[grain], contributor_a[grain], contributor_b[grain], ApolloniusGrain.childPathHash(path_hash[grain], 0));
+		addChild(grain, parent[grain], contributor_b[grain], contributor_a[grain], ApolloniusGrain.childPathHash(path_hash[grain], 1));
+		addChild(grain, contributor_a[grain], contributor_b[grain], parent[grain], ApolloniusGrain.childPathHash(path_hash[grain], 2));
+		
+		child[grain] = first;
+	}
+	
+	// The traversals below visit grains depth first and in order, as recursion would, but keep the grains still to visit on the stack. Children are pushed in reverse so that they are popped in order.
+	public void calculateChildrenToDepth(int depth) {
+		stack_size = 0;
+		push(root, depth);
+		
+		while (stack_size > 0) {
+			int remaining_depth = stack[--stack_size];
+			int grain = stack[--stack_size];
+			if (remaining_depth == 0) continue;
+			
+			if (isLeaf(grain)) {
+				calculateChildren(grain);
+			}
+			
+			int first = child[grain];
+			for (int i = 2; i >= 0; i--) {
+				push(first + i, remaining_depth-1);
+			}
+		}
+	}
+	
+	// Generate children until all leaf grains have no greater diameter than the passed threshold.
+	public void calculateChildrenToGranularity(double min_diameter) {
+		stack_size = 0;
+		push(root, 0);
+		
+		while (stack_size > 0) {
+			stack_size--; // The value is unused.
+			int grain = stack[--stack_size];
+			
+			if (isLeaf(grain)) {
+				calculateChildren(grain);
+			}
+			
+			if (2*r[grain] > min_diameter) {
+				int first = child[grain];
+				for (int i = 2; i >= 0; i--) {
+					push(first + i, 0);
+				}
+			}
+		}
+	}
+	
+	// Same as calculateChildrenToGranularity(double), but never expands a child whose dart does not intersect the passed viewport.
+	// See ApolloniusGrain.calculateChildrenToGranularity(double, SgndAlgndRectangle).
+	public void calculateChildrenToGranularity(double min_diameter, SgndAlgndRectangle viewport) {
+		stack_size = 0;
+		push(root, 0);
+		
+		while (stack_size > 0) {
+			stack_size--; // The value is unused.
+			int grain = stack[--stack_size];
+			
+			if (isLeaf(grain)) {
+				calculateChildren(grain);
+			}
+			
+			if (2*r[grain] > min_diameter) {
+				int first = child[grain];
+				for (int i = 2; i >= 0; i--) {
+					if (dartIntersects(first + i, viewport)) {
+						push(first + i, 0);
+					}
+				}
+			}
+		}
+	}
+	
+	// Returns the index of the grain whose circle contains the passed point, or NONE.
+	// Performs the same search as ApolloniusGrain.getContainmentCircle().
+	public int getContainmentCircle(double px, double py) {
+		if (contains(parent[root], px, py)       ) return parent[root];
+		if (contains(contributor_a[root], px, py)) return contributor_a[root];
+		if (contains(contributor_b[root], px, py)) return contributor_b[root];
+		
+		int grain = root;
+		descend:
+		while (true) {
+			if (contains(grain, px, py)) {
+				return grain;
+			}
+			
+			if (isLeaf(grain)) {
+				return NONE;
+			}
+			
+			int first = child[grain];
+			for (int i = 0; i < 3; i++) {
+				if (dartContains(first + i, px, py)) {
+					grain = first + i;
+					continue descend;
+				}
+			}
+			
+			return NONE;
+		}
+	}
+	
+	// Creates a hint for getContainmentCircle(double, double, int[]).
+	// It holds the generation it is valid for, the deepest grain whose dart contained the last point, and the grain returned by the last query.
+	public int[] newHint() {
+		return new int[] {generation, root, NONE};
+	}
+	
+	// Same as getContainmentCircle(double, double), but starts from where the last query with the same hint ended.
+	// See ApolloniusGrain.getContainmentCircle(Point, ContainmentHint) for why this gives the same results.
+	public int getContainmentCircle(double px, double py, int[] hint) {
+		if (hint[0] != generation) {
+			hint[0] = generation;
+			hint[1] = root;
+			hint[2] = NONE;
+		}
+		
+		if (hint[2] != NONE && contains(hint[2], px, py)) {
+			return hint[2];
+		}
+		
+		int start = hint[1];
+		while (start != root && !dartContains(start, px, py)) {
+			start = parent[start];
+		}
+		
+		if (contains(parent[start], px, py)       ) return hint[2] = parent[start];
+		if (contains(contributor_a[start], px, py)) return hint[2] = contributor_a[start];
+		if (contains(contributor_b[start], px, py)) return hint[2] = contributor_b[start];
+		
+		int grain = start;
+		descend:
+		while (true) {
+			hint[1] = grain;
+			
+			if (contains(grain, px, py)) {
+				return hint[2] = grain;
+			}
+			
+			if (isLeaf(grain)) {
+				return hint[2] = NONE;
+			}
+			
+			int first = child[grain];
+			for (int i = 0; i < 3; i++) {
+				if (dartContains(first + i, px, py)) {
+					grain = first + i;
+					continue descend;
+				}
+			}
+			
+			return hint[2] = NONE;
+		}
+	}
+	
+	// Descends from the root as long as only one child's dart intersects the passed rectangle, and makes the grain it stops at the new root.
+	// Everything other than the new root, its descendants, its parent and its contributors is discarded.
+	// See ApolloniusGrain.pruneByExtrication().
+	public void pruneByExtrication(SgndAlgndRectangle rect) {
+		if (!dartIntersects(root, rect)) {
+			throw new Error("Invalid state. Passed rectangle is not within the tree at all!");
+		}
+		
+		int new_root = root;
+		while (!isLeaf(new_root)) {
+			int first = child[new_root];
+			int intersecting = NONE;
+			int num_intersecting = 0;
+			
+			for (int i = 0; i < 3; i++) {
+				if (dartIntersects(first + i, rect)) {
+					intersecting = first + i;
+					num_intersecting++;
+				}
+			}
+			
+			if (num_intersecting != 1) {
+				break;
+			}
+			
+			new_root = intersecting;
+		}
+		
+		if (new_root != root) {
+			root = new_root;
+			compact();
+		}
+	}
+	
+	// Removes all children whose darts do not intersect the passed region, along with their descendants.
+	public void pruneByExcision(SgndAlgndRectangle rect) {
+		stack_size = 0;
+		push(root, 0);
+		
+		while (stack_size > 0) {
+			stack_size--; // The value is unused.
+			int grain = stack[--stack_size];
+			if (isLeaf(grain)) continue;
+			
+			int first = child[grain];
+			for (int i = 2; i >= 0; i--) {
+				if (!dartIntersects(first + i, rect)) child[first + i] = NONE;
+				else push(first + i, 0);
+			}
+		}
+		
+		compact();
+	}
+	
+	// Copies every grain still reachable from the root into new, tightly-sized arrays, releasing everything pruned since the last call.
+	// The root's parent and contributors become scaffolding and lose their own relations.
+	public void compact() {
+		int[] reachable = new int[size];
+		int num_reachable = 0;
+		
+		reachable[num_reachable++] = parent[root];
+		reachable[num_reachable++] = contributor_a[root];
+		reachable[num_reachable++] = contributor_b[root];
+		reachable[num_reachable++] = root;
+		
+		// Breadth-first, so that each set of three children stays contiguous.
+		for (int i = 3; i < num_reachable; i++) {
+			int grain = reachable[i];
+			if (!isLeaf(grain)) {
+				for (int j = 0; j < 3; j++) {
+					reachable[num_reachable++] = child[grain] + j;
+				}
+			}
+		}
+		
+		int[] new_index = new int[size];
+		Arrays.fill(new_index, NONE);
+		for (int i = 0; i < num_reachable; i++) {
+			new_index[reachable[i]] = i;
+		}
+		
+		double[] old_x = x, old_y = y, old_r = r, old_dart = dart;
+		int[] old_datum = datum, old_depth = depth;
+		long[] old_path_hash = path_hash;
+		int[] old_parent = parent, old_contributor_a = contributor_a, old_contributor_b = contributor_b, old_child = child;
+		
+		allocate(Math.max(num_reachable, 16));
+		
+		for (int i = 0; i < num_reachable; i++) {
+			int old = reachable[i];
+			
+			x[i] = old_x[old];
+			y[i] = old_y[old];
+			r[i] = old_r[old];
+			datum[i] = old_datum[old];
+			depth[i] = old_depth[old];
+			path_hash[i] = old_path_hash[old];
+			System.arraycopy(old_dart, old * DART_STRIDE, dart, i * DART_STRIDE, DART_STRIDE);
+			
+			boolean is_scaffold = i < 3;
+			parent[i]        = is_scaffold ? NONE : new_index[old_parent[old]];
+			contributor_a[i] = is_scaffold ? NONE : new_index[old_contributor_a[old]];
+			contributor_b[i] = is_scaffold ? NONE : new_index[old_contributor_b[old]];
+			child[i]         = is_scaffold || old_child[old] == NONE ? NONE : new_index[old_child[old]];
+		}
+		
+		size = num_reachable;
+		root = 3;
+		generation++;
+	}
+	
+	// Returns five arrays in the same format as ApolloniusGrain.getStats(): For each layer, starting from the deepest and ending with the root,
+	// - circle quantity
+	// - Total covered area
+	// - minimum radius
+	// - average radius
+	// - maximum radius
+	public double[][] getStats() {
+		int root_depth = depth[root];
+		int max_depth = root_depth;
+		
+		int[] stack = new int[64];
+		int stack_size = 0;
+		
+		double[][] by_depth = new double[5][0];
+		stack[stack_size++] = root;
+		while (stack_size > 0) {
+			int grain = stack[--stack_size];
+			int layer = depth[grain] - root_depth;
+			
+			if (layer >= by_depth[0].length) {
+				for (int metric = 0; metric < 5; metric++) {
+					by_depth[metric] = Arrays.copyOf(by_depth[metric], Math.max(layer + 1, by_depth[metric].length * 2));
+				}
+			}
+			
+			if (by_depth[0][layer] == 0) {
+				by_depth[2][layer] = Double.POSITIVE_INFINITY;
+			}
+			
+			by_depth[0][layer] += 1;
+			by_depth[1][layer] += Math.PI * r[grain] * r[grain];
+			by_depth[2][layer] = Math.min(by_depth[2][layer], r[grain]);
+			by_depth[3][layer] += r[grain];
+			by_depth[4][layer] = Math.max(by_depth[4][layer], r[grain]);
+			max_depth = Math.max(max_depth, depth[grain]);
+			
+			if (!isLeaf(grain)) {
+				if (stack_size + 3 > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+				}
+				
+				for (int i = 0; i < 3; i++) {
+					stack[stack_size++] = child[grain] + i;
+				}
+			}
+		}
+		
+		// Reverse the layers and turn radius sums into averages.
+		int num_layers = max_depth - root_depth + 1;
+		double[][] stats = new double[5][num_layers];
+		for (int layer = 0; layer < num_layers; layer++) {
+			int to = num_layers - 1 - layer;
+			for (int metric = 0; metric < 5; metric++) {
+				stats[metric][to] = by_depth[metric][layer];
+			}
+			
+			stats[3][to] /= stats[0][to];
+		}
+		
+		return stats;
+	}
+	
+	// Obtains stats on this tree and prints them.
+	public void debug() {
+		ApolloniusGrain.printStats(getStats());
+	}
+	
+	// Returns the color of the passed grain, or black for NONE.
+	public int shade(int grain) {
+		return grain == NONE ? 0 : datum[grain] & 0xFFFFFF;
+	}
+	
+	public boolean contains(int grain, double px, double py) {
+		double dx = px - x[grain];
+		double dy = py - y[grain];
+		
+		return dx*dx + dy*dy < r[grain]*r[grain];
+	}
+	
+	// Same as PreparedTriangle.contains() on the grain's dart bounds, which are the triangle formed by the points of tangency between its parent and contributors.
+	public boolean dartContains(int grain, double px, double py) {
+		int offset = grain * DART_STRIDE;
+		
+		if (px < dart[offset + 12] || px > dart[offset + 13] || py < dart[offset + 14] || py > dart[offset + 15]) return false;
+		
+		return dart[offset + 6 ] * (px - dart[offset    ]) + dart[offset + 7 ] * (py - dart[offset + 1]) >= 0
+			&& dart[offset + 8 ] * (px - dart[offset + 2]) + dart[offset + 9 ] * (py - dart[offset + 3]) >= 0
+			&& dart[offset + 10] * (px - dart[offset + 4]) + dart[offset + 11] * (py - dart[offset + 5]) >= 0;
+	}
+	
+	// Same as PreparedTriangle.intersects() on the grain's dart bounds, for rectangles not in double-double mode.
+	public boolean dartIntersects(int grain, SgndAlgndRectangle rect) {
+		int offset = grain * DART_STRIDE;
+		double left = rect.left(), bottom = rect.bottom(), right = rect.right(), top = rect.top();
+		
+		if (right < dart[offset + 12] || left > dart[offset + 13] || top < dart[offset + 14] || bottom > dart[offset + 15]) return false;
+		
+		double a_x = dart[offset    ], a_y = dart[offset + 1];
+		double b_x = dart[offset + 2], b_y = dart[offset + 3];
+		double c_x = dart[offset + 4], c_y = dart[offset + 5];
+		
+		if (LineSegment.intersects(a_x, a_y, b_x, b_y, left, bottom, right, top)) return true;
+		if (LineSegment.intersects(c_x, c_y, b_x, b_y, left, bottom, right, top)) return true;
+		if (LineSegment.intersects(a_x, a_y, c_x, c_y, left, bottom, right, top)) return true;
+		
+		// Cover the case where the rectangle is entirely within the triangle.
+		return dartContains(grain, rect.a.x, rect.a.y);
+	}
+	
+	public Circle getCircle(int grain) {
+		return new Circle(new Point(x[grain], y[grain]), r[grain]);
+	}
+	
+	public boolean isLeaf(int grain) {
+		return child[grain] == NONE;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	private int addScaffold(Circle circle, long path_hash) {
+		return add(circle.origin.x, circle.origin.y, circle.radius, NONE, NONE, NONE, path_hash, -1);
+	}
+	
+	// Solves for the new grain's circle with ApolloniusGrain.solver. See ApolloniusGrain.calculateChildren() for the meaning of the opposite grain.
+	// Pass NONE if the opposite is unknown.
+	private int addChild(int parent, int contributor_a, int contributor_b, int opposite, long path_hash) {
+		boolean solved = ApolloniusGrain.solver.solve(
+			x[parent], y[parent], r[parent],
+			x[contributor_a], y[contributor_a], r[contributor_a],
+			x[contributor_b], y[contributor_b], r[contributor_b],
+			opposite == NONE ? 0 : x[opposite], opposite == NONE ? 0 : y[opposite], opposite == NONE ? Double.NaN : r[opposite],
+			solution
+		);
+		
+		if (!solved)
+			throw new Error("There must be a solution.");
+		
+		return add(solution[0], solution[1], solution[2], parent, contributor_a, contributor_b, path_hash, depth[parent] + 1);
+	}
+	
+	private int add(double x, double y, double r, int parent, int contributor_a, int contributor_b, long path_hash, int depth) {
+		if (size == this.x.length) {
+			grow(size * 2);
+		}
+		
+		int grain = size++;
+		this.x[grain] = x;
+		this.y[grain] = y;
+		this.r[grain] = r;
+		this.datum[grain] = ApolloniusGrain.datumOf(path_hash);
+		this.depth[grain] = depth;
+		this.path_hash[grain] = path_hash;
+		this.parent[grain] = parent;
+		this.contributor_a[grain] = contributor_a;
+		this.contributor_b[grain] = contributor_b;
+		this.child[grain] = NONE;
+		
+		if (parent != NONE) {
+			prepareDart(grain);
+		}
+		
+		return grain;
+	}
+	
+	// Fills in the grain's dart with the same arithmetic as ApolloniusGrain.calculateDartBounds() and PreparedTriangle.prepare().
+	private void prepareDart(int grain) {
+		int p = parent[grain];
+		int a = contributor_a[grain];
+		int b = contributor_b[grain];
+		
+		// For each pair of circles, the point where the first touches the second.
+		double pa_x = x[a] - x[p], pa_y = y[a] - y[p];
+		double pb_x = x[b] - x[p], pb_y = y[b] - y[p];
+		double ab_x = x[b] - x[a], ab_y = y[b] - y[a];
+		
+		double pa_len = Math.sqrt(pa_x*pa_x + pa_y*pa_y);
+		double pb_len = Math.sqrt(pb_x*pb_x + pb_y*pb_y);
+		double ab_len = Math.sqrt(ab_x*ab_x + ab_y*ab_y);
+		
+		double t1_x = x[p] + pa_x/pa_len*r[p], t1_y = y[p] + pa_y/pa_len*r[p];
+		double t2_x = x[p] + pb_x/pb_len*r[p], t2_y = y[p] + pb_y/pb_len*r[p];
+		double t3_x = x[a] + ab_x/ab_len*r[a], t3_y = y[a] + ab_y/ab_len*r[a];
+		
+		// NaN fails every comparison, so a degenerate dart contains nothing.
+		double winding = Math.signum((t2_x - t1_x) * (t3_y - t1_y) - (t2_y - t1_y) * (t3_x - t1_x));
+		if (winding == 0) winding = Double.NaN;
+		
+		double min_x = Math.min(t1_x, Math.min(t2_x, t3_x));
+		double max_x = Math.max(t1_x, Math.max(t2_x, t3_x));
+		double min_y = Math.min(t1_y, Math.min(t2_y, t3_y));
+		double max_y = Math.max(t1_y, Math.max(t2_y, t3_y));
+		double margin = 0x1p-46 * Math.max(Math.max(-min_x, max_x), Math.max(-min_y, max_y));
+		
+		int offset = grain * DART_STRIDE;
+		dart[offset     ] = t1_x;
+		dart[offset +  1] = t1_y;
+		dart[offset +  2] = t2_x;
+		dart[offset +  3] = t2_y;
+		dart[offset +  4] = t3_x;
+		dart[offset +  5] = t3_y;
+		dart[offset +  6] = (t1_y - t2_y) * winding;
+		dart[offset +  7] = (t2_x - t1_x) * winding;
+		dart[offset +  8] = (t2_y - t3_y) * winding;
+		dart[offset +  9] = (t3_x - t2_x) * winding;
+		dart[offset + 10] = (t3_y - t1_y) * winding;
+		dart[offset + 11] = (t1_x - t3_x) * winding;
+		dart[offset + 12] = min_x - margin;
+		dart[offset + 13] = max_x + margin;
+		dart[offset + 14] = min_y - margin;
+		dart[offset + 15] = max_y + margin;
+	}
+	
+	private void push(int grain, int value) {
+		if (stack_size + 2 > stack.length) {
+			stack = Arrays.copyOf(stack, stack.length * 2);
+		}
+		
+		stack[stack_size++] = grain;
+		stack[stack_size++] = value;
+	}
+	
+	private void allocate(int capacity) {
+		x = new double[capacity];
+		y = new double[capacity];
+		r = new double[capacity];
+		datum = new int[capacity];
+		depth = new int[capacity];
+		path_hash = new long[capacity];
+		parent = new int[capacity];
+		contributor_a = new int[capacity];
+		contributor_b = new int[capacity];
+		child = new int[capacity];
+		dart = new double[capacity * DART_STRIDE];
+	}
+	
+	private void grow(int capacity) {
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		r = Arrays.copyOf(r, capacity);
+		datum = Arrays.copyOf(datum, capacity);
+		depth = Arrays.copyOf(depth, capacity);
+		path_hash = Arrays.copyOf(path_hash, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		contributor_a = Arrays.copyOf(contributor_a, capacity);
+		contributor_b = Arrays.copyOf(contributor_b, capacity);
+		child = Arrays.copyOf(child, capacity);
+		dart = Arrays.copyOf(dart, capacity * DART_STRIDE);
+	}
+}
@@ -0,0 +1,185 @@
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+import ekobadd.geometry.*;
+
+// Renders the fractal by walking the tree with a packet of neighbouring samples at a time, instead of walking it once per sample.
+// At each grain, every sample still in the packet is tested against the grain's circle in one pass, then against each child's dart in another. Samples only part ways when they land in different darts.
+// The tests are carried out by a Kernel, which uses SIMD instructions through the Vector API when VectorKernel has been built and jdk.incubator.vector is available, and plain loops otherwise.
+// The tiles are distributed among threads by a TiledRenderer. Samples are positioned and tested exactly as in Apollonius.render(), so the output is the same.
+class PacketRenderer {
+	// Lanewise containment tests over a packet of samples. Bit i of a mask stands for sample i.
+	// Only samples set in the active mask need to be tested. The rest must be clear in the result.
+	interface Kernel {
+		long circleContains(double[] xs, double[] ys, long active, Circle circle);
+		long dartContains(double[] xs, double[] ys, long active, PreparedTriangle dart);
+	}
+	
+	// Dimensions of a packet, in pixels. A packet must have no more than 64 samples, one per bit of a mask.
+	// Both must be powers of two so that packets tile the default tile size evenly.
+	static final int PACKET_WIDTH = 8;
+	static final int PACKET_HEIGHT = 8;
+	static final int PACKET_SIZE = PACKET_WIDTH * PACKET_HEIGHT;
+	
+	// The fastest kernel available to this JVM.
+	static final Kernel KERNEL = loadKernel();
+	
+	// VectorKernel is built separately from the rest (see build-vector in the Justfile), so that nothing else needs jdk.incubator.vector. It is only ever loaded by name.
+	private static Kernel loadKernel() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				Class<?> vector_kernel = Class.forName("VectorKernel");
+				if ((boolean) vector_kernel.getDeclaredMethod("isAccelerated").invoke(null)) {
+					return (Kernel) vector_kernel.getDeclaredConstructor(int.class).newInstance(PACKET_SIZE);
+				}
+			} catch (ReflectiveOperationException e) {
+				// Not built, or unusable with this packet size. The scalar kernel gives the same results.
+			}
+		}
+		
+		return new ScalarKernel();
+	}
+	
+	public static BufferedImage render(TiledRenderer tiles, ApolloniusGrain root, int width, int height, SgndAlgndRectangle viewport) {
+		return render(tiles, KERNEL, root, width, height, viewport);
+	}
+	
+	public static BufferedImage render(TiledRenderer tiles, Kernel kernel, ApolloniusGrain root, int width, int height, SgndAlgndRectangle viewport) {
+		double[] sample_x = TiledRenderer.sampleColumns(viewport, width);
+		double[] sample_y = TiledRenderer.sampleRows(viewport, height);
+		
+		return tiles.render(width, height, (pixels, w, h, x_start, y_start, x_end, y_end) -> {
+			double[] xs = new double[PACKET_SIZE];
+			double[] ys = new double[PACKET_SIZE];
+			int[] shades = new int[PACKET_SIZE];
+			PacketStack stack = new PacketStack();
+			
+			for (int packet_y = y_start; packet_y < y_end; packet_y += PACKET_HEIGHT) {
+				for (int packet_x = x_start; packet_x < x_end; packet_x += PACKET_WIDTH) {
+					// Packets overhanging the edge of the tile repeat its last sample, with the extra lanes left inactive.
+					long active = 0;
+					for (int i = 0; i < PACKET_SIZE; i++) {
+						int x = packet_x + i % PACKET_WIDTH;
+						int y = packet_y + i / PACKET_WIDTH;
+						if (x < x_end && y < y_end) active |= 1L << i;
+						
+						xs[i] = sample_x[Math.min(x, x_end - 1)];
+						ys[i] = sample_y[Math.min(y, y_end - 1)];
+						shades[i] = 0;
+					}
+					
+					shadePacket(kernel, root, xs, ys, active, shades, stack);
+					
+					for (long lanes = active; lanes != 0; lanes &= lanes - 1) {
+						int i = Long.numberOfTrailingZeros(lanes);
+						pixels[(packet_y + i / PACKET_WIDTH) * w + packet_x + i % PACKET_WIDTH] = shades[i];
+					}
+				}
+			}
+		});
+	}
+	
+	// Finds the circle containing each active sample, as ApolloniusGrain.getContainmentCircle() would, and writes its shade to the matching lane of shades.
+	// Lanes whose samples are in no circle are left untouched.
+	// The stack is only used for the duration of the call, and may be shared by calls on the same thread.
+	static void shadePacket(Kernel kernel, ApolloniusGrain root, double[] xs, double[] ys, long active, int[] shades, PacketStack stack) {
+		active = shadeCircle(kernel, root.parent, xs, ys, active, shades);
+		active = shadeCircle(kernel, root.contributor_a, xs, ys, active, shades);
+		active = shadeCircle(kernel, root.contributor_b, xs, ys, active, shades);
+		
+		if (active != 0) {
+			shadeSubtree(kernel, root, xs, ys, active, shades, stack);
+		}
+	}
+	
+	// Each sample descends into the first child whose dart contains it, and no other, just as in getContainmentCircleRecurse().
+	// Each grain on the stack is paired with the samples which descended into it. Those of different grains never overlap, so the order they are visited in does not matter.
+	private static void shadeSubtree(Kernel kernel, ApolloniusGrain root, double[] xs, double[] ys, long active, int[] shades, PacketStack stack) {
+		stack.size = 0;
+		stack.push(root, active);
+		
+		while (stack.size > 0) {
+			ApolloniusGrain grain = stack.pop();
+			
+			long remaining = shadeCircle(kernel, grain, xs, ys, stack.mask(), shades);
+			if (remaining == 0 || grain.child_a == null) continue;
+			
+			for (int i = 0; i < 3 && remaining != 0; i++) {
+				ApolloniusGrain child = i == 0 ? grain.child_a : i == 1 ? grain.child_b : grain.child_c;
+				
+				long within = kernel.dartContains(xs, ys, remaining, child.getDartBounds());
+				if (within != 0) {
+					stack.push(child, within);
+					remaining &= ~within;
+				}
+			}
+		}
+	}
+	
+	// Shades the active samples within the grain's circle. Returns the active samples which are not.
+	private static long shadeCircle(Kernel kernel, ApolloniusGrain grain, double[] xs, double[] ys, long active, int[] shades) {
+		long within = kernel.circleContains(xs, ys, active, grain.circle());
+		
+		for (long lanes = within; lanes != 0; lanes &= lanes - 1) {
+			shades[Long.numberOfTrailingZeros(lanes)] = TiledRenderer.shade(grain);
+		}
+		
+		return active & ~within;
+	}
+	
+	// Grains still to be visited by shadeSubtree(), each with a mask of the samples which descended into it.
+	static class PacketStack {
+		private ApolloniusGrain[] grains = new ApolloniusGrain[64];
+		private long[] masks = new long[64];
+		private int size = 0;
+		
+		void push(ApolloniusGrain grain, long mask) {
+			if (size == grains.length) {
+				grains = Arrays.copyOf(grains, size * 2);
+				masks = Arrays.copyOf(masks, size * 2);
+			}
+			
+			grains[size] = grain;
+			masks[size] = mask;
+			size++;
+		}
+		
+		// The grain is cleared from the stack, so that the stack does not keep it from being garbage-collected. Its mask remains until the next push, as mask().
+		ApolloniusGrain pop() {
+			ApolloniusGrain grain = grains[--size];
+			grains[size] = null;
+			return grain;
+		}
+		
+		// The mask of the grain popped last.
+		long mask() {
+			return masks[size];
+		}
+	}
+	
+	// Tests one sample at a time, exactly as Circle.contains() and PreparedTriangle.contains() do.
+	static class ScalarKernel implements Kernel {
+		public long circleContains(double[] xs, double[] ys, long active, Circle circle) {
+			long within = 0;
+			for (long lanes = active; lanes != 0; lanes &= lanes - 1) {
+				int i = Long.numberOfTrailingZeros(lanes);
+				
+				double dx = xs[i] - circle.origin.x;
+				double dy = ys[i] - circle.origin.y;
+				if (dx*dx + dy*dy < circle.radius*circle.radius) within |= 1L << i;
+			}
+			
+			return within;
+		}
+		
+		public long dartContains(double[] xs, double[] ys, long active, PreparedTriangle dart) {
+			long within = 0;
+			for (long lanes = active; lanes != 0; lanes &= lanes - 1) {
+				int i = Long.numberOfTrailingZeros(lanes);
+				if (dart.contains(xs[i], ys[i])) within |= 1L << i;
+			}
+			
+			return within;
+		}
+	}
+}
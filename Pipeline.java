@@ -0,0 +1,46 @@
+import java.util.ArrayList;
+
+// Runs the stages of a pipeline at the same time, each on its own thread, and waits for all of them to finish.
+// Stages should pass work along through bounded queues, so that a fast stage blocks rather than running arbitrarily far ahead of a slow one.
+// If any stage fails, the others are interrupted and the first failure is rethrown.
+class Pipeline {
+	interface Stage {
+		void run() throws Exception;
+	}
+	
+	public static void run(Stage... stages) throws Exception {
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		Throwable[] failure = new Throwable[1];
+		
+		for (Stage stage : stages) {
+			threads.add(new Thread(() -> {
+				try {
+					stage.run();
+				}
+				catch (InterruptedException e) {
+					// Another stage failed.
+				}
+				catch (Throwable e) {
+					synchronized (failure) {
+						if (failure[0] == null) failure[0] = e;
+					}
+					
+					for (Thread thread : threads) {
+						thread.interrupt();
+					}
+				}
+			}));
+		}
+		
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		if (failure[0] instanceof Error error) throw error;
+		if (failure[0] instanceof Exception exception) throw exception;
+	}
+}
@@ -0,0 +1,169 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+import ekobadd.geometry.*;
+
+// Renders the fractal by drawing each circle into the image, instead of searching the tree for every pixel.
+// The tree is walked once. Each circle is scan-converted one row at a time, filling the span of pixels whose sample points it contains.
+// Subtrees whose darts cover no sample point are skipped entirely, which includes all grains too small to land on one.
+// The work done is proportional to the number of visible circles plus the number of pixels they cover.
+// Samples are positioned and tested exactly as in Apollonius.render(), and since circles never overlap, the output is the same.
+class ScanRenderer {
+	final int width;
+	final int height;
+	final SgndAlgndRectangle viewport;
+	
+	// Sample positions of each column and row.
+	final double[] sample_x;
+	final double[] sample_y;
+	
+	final int[] pixels;
+	
+	// Grains still to be visited while walking the tree, and whether each one's children have already been pushed.
+	private ApolloniusGrain[] stack = new ApolloniusGrain[128];
+	private boolean[] expanded = new boolean[128];
+	private int stack_size = 0;
+	
+	private ScanRenderer(int[] pixels, int width, int height, SgndAlgndRectangle viewport) {
+		this.pixels = pixels;
+		this.width = width;
+		this.height = height;
+		this.viewport = viewport;
+		
+		this.sample_x = TiledRenderer.sampleColumns(viewport, width);
+		this.sample_y = TiledRenderer.sampleRows(viewport, height);
+	}
+	
+	public static BufferedImage render(ApolloniusGrain root, int width, int height, SgndAlgndRectangle viewport) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		
+		ScanRenderer renderer = new ScanRenderer(pixels, width, height, viewport);
+		
+		// The per-pixel search never tests the root's dart, so neither is it used for culling here.
+		renderer.drawSubtree(root);
+		
+		// The scaffolding is tested first by the per-pixel search, so it is drawn last here.
+		renderer.drawCircle(root.parent);
+		renderer.drawCircle(root.contributor_a);
+		renderer.drawCircle(root.contributor_b);
+		
+		return image;
+	}
+	
+	// Draws all circles of the subtree, descendants first.
+	// Should floating-point error make circles overlap slightly, this lets ancestors win, as they would in the per-pixel search.
+	// Visits grains in the same order as recursion would: each child in order, then the grain itself. A grain is pushed twice, the first time to push its children above it and the second time to draw it.
+	private void drawSubtree(ApolloniusGrain root) {
+		stack_size = 0;
+		push(root, false);
+		
+		while (stack_size > 0) {
+			ApolloniusGrain grain = stack[--stack_size];
+			stack[stack_size] = null;
+			
+			if (expanded[stack_size] || grain.child_a == null) {
+				drawCircle(grain);
+				continue;
+			}
+			
+			push(grain, true);
+			
+			// Pushed in reverse so that they are popped in order.
+			if (coversSample(grain.child_c)) push(grain.child_c, false);
+			if (coversSample(grain.child_b)) push(grain.child_b, false);
+			if (coversSample(grain.child_a)) push(grain.child_a, false);
+		}
+	}
+	
+	private void push(ApolloniusGrain grain, boolean children_pushed) {
+		if (stack_size == stack.length) {
+			stack = Arrays.copyOf(stack, stack.length * 2);
+			expanded = Arrays.copyOf(expanded, expanded.length * 2);
+		}
+		
+		stack[stack_size] = grain;
+		expanded[stack_size++] = children_pushed;
+	}
+	
+	// Whether the bounds of the grain's dart cover any sample. If not, neither the grain nor its descendants can contain one.
+	private boolean coversSample(ApolloniusGrain grain) {
+		Triangle dart = grain.getDartBounds();
+		
+		double left   = Math.min(dart.a.x, Math.min(dart.b.x, dart.c.x));
+		double right  = Math.max(dart.a.x, Math.max(dart.b.x, dart.c.x));
+		double bottom = Math.min(dart.a.y, Math.min(dart.b.y, dart.c.y));
+		double top    = Math.max(dart.a.y, Math.max(dart.b.y, dart.c.y));
+		
+		return firstSampleWithin(sample_x, left, right) <= lastSampleWithin(sample_x, left, right)
+			&& firstSampleWithin(sample_y, bottom, top) <= lastSampleWithin(sample_y, bottom, top);
+	}
+	
+	private void drawCircle(ApolloniusGrain grain) {
+		Circle circle = grain.circle();
+		double origin_x = circle.origin.x;
+		double origin_y = circle.origin.y;
+		double radius = circle.radius;
+		int pixel = grain.datum & 0xFFFFFF;
+		
+		// Rounding could place a row's sample just outside of the computed bounds while it still passes the exact test, so look one row further either way.
+		int first_row = Math.max(firstSampleWithin(sample_y, origin_y - radius, origin_y + radius) - 1, 0);
+		int last_row = Math.min(lastSampleWithin(sample_y, origin_y - radius, origin_y + radius) + 1, height - 1);
+		
+		for (int row = first_row; row <= last_row; row++) {
+			double dy = sample_y[row] - origin_y;
+			if (dy*dy >= radius*radius) continue;
+			
+			// The span found from the circle's half-width at this row is only approximate. Widen it, then shrink it until both ends pass the exact test Circle.contains() uses.
+			double half_width = Math.sqrt(radius*radius - dy*dy);
+			int first_column = Math.max(firstSampleWithin(sample_x, origin_x - half_width, origin_x + half_width) - 1, 0);
+			int last_column = Math.min(lastSampleWithin(sample_x, origin_x - half_width, origin_x + half_width) + 1, width - 1);
+			
+			while (first_column <= last_column && !contains(sample_x[first_column] - origin_x, dy, radius)) first_column++;
+			while (last_column >= first_column && !contains(sample_x[last_column] - origin_x, dy, radius)) last_column--;
+			
+			int row_start = row * width;
+			for (int column = first_column; column <= last_column; column++) {
+				pixels[row_start + column] = pixel;
+			}
+		}
+	}
+	
+	private static boolean contains(double dx, double dy, double radius) {
+		return dx*dx + dy*dy < radius*radius;
+	}
+	
+	// Index of the first sample within [low, high], or the number of samples if there is none.
+	// Samples are sorted, but are in decreasing order if the viewport is flipped along their axis. Either way, the samples within a range are contiguous.
+	static int firstSampleWithin(double[] samples, double low, double high) {
+		boolean increasing = samples.length < 2 || samples[0] <= samples[samples.length - 1];
+		
+		int first = 0;
+		int end = samples.length;
+		while (first < end) {
+			int middle = (first + end) >>> 1;
+			boolean before_range = increasing ? samples[middle] < low : samples[middle] > high;
+			if (before_range) first = middle + 1;
+			else end = middle;
+		}
+		
+		return first;
+	}
+	
+	// Index of the last sample within [low, high], or one less than firstSampleWithin() if there is none.
+	static int lastSampleWithin(double[] samples, double low, double high) {
+		boolean increasing = samples.length < 2 || samples[0] <= samples[samples.length - 1];
+		
+		int first = 0;
+		int end = samples.length;
+		while (first < end) {
+			int middle = (first + end) >>> 1;
+			boolean not_past_range = increasing ? samples[middle] <= high : samples[middle] >= low;
+			if (not_past_range) first = middle + 1;
+			else end = middle;
+		}
+		
+		return first - 1;
+	}
+}
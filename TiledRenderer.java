@@ -0,0 +1,298 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import ekobadd.geometry.*;
+
+// Renders the fractal on a pool of worker threads.
+// The image is split into square tiles, each of which is rendered independently. Since tiles never overlap, the workers write straight into the image's pixel buffer without any synchronization.
+// The output is identical to that of Apollonius.render(), pixel for pixel. Only the order in which pixels are visited differs.
+// In coherent mode, the pixels of each tile are visited in Morton (Z-curve) order and each query starts from where the last one ended. See ApolloniusGrain.getContainmentCircle(Point, ContainmentHint).
+class TiledRenderer implements AutoCloseable {
+	// Fills in the pixels of one tile. The buffer holds the whole image in row-major order; only the pixels in [x_start, x_end) x [y_start, y_end) may be written.
+	interface TileShader {
+		void shadeTile(int[] pixels, int width, int height, int x_start, int y_start, int x_end, int y_end);
+	}
+	
+	// Width and height of a tile, in pixels. Tiles on the right and bottom edges of the image may be smaller.
+	final int tile_size;
+	final int threads;
+	final boolean coherent;
+	
+	private final ForkJoinPool pool;
+	
+	public TiledRenderer(int tile_size, int threads, boolean coherent) {
+		if (tile_size < 1)
+			throw new IllegalArgumentException("Tile size must be at least one pixel.");
+		if (threads < 1)
+			throw new IllegalArgumentException("At least one render thread is required.");
+		
+		this.tile_size = tile_size;
+		this.threads = threads;
+		this.coherent = coherent;
+		this.pool = new ForkJoinPool(threads);
+	}
+	
+	// Uses coherent queries and one thread per available processor.
+	public TiledRenderer(int tile_size) {
+		this(tile_size, Runtime.getRuntime().availableProcessors(), true);
+	}
+	
+	public BufferedImage render(ApolloniusGrain root, int width, int height, SgndAlgndRectangle viewport) {
+		return render(root, width, height, viewport, null);
+	}
+	
+	// Same as render(ApolloniusGrain, int, int, SgndAlgndRectangle), but adds the totals from the hints of coherent queries to the passed counts, if any.
+	public BufferedImage render(ApolloniusGrain root, int width, int height, SgndAlgndRectangle viewport, QueryCounts counts) {
+		return render(root, width, height, viewport, 0, false, counts);
+	}
+	
+	// Renders a tree which has not been generated down to the passed granularity, expanding leaves as the pixels reach them. See ApolloniusGrain.expandConcurrently().
+	// The tree ends up as if calculateChildrenToGranularity(min_diameter) had been called on it beforehand, minus every subtree no pixel landed in.
+	// Each new grain's datum depends only on its place in the tree, so the image does not depend on which thread reaches each leaf first.
+	// Expansion relies on hints, so coherent queries are used regardless of this renderer's setting.
+	// The totals from the hints are added to the passed counts, if any.
+	public BufferedImage renderExpanding(ApolloniusGrain root, int width, int height, SgndAlgndRectangle viewport, double min_diameter, QueryCounts counts) {
+		return render(root, width, height, viewport, min_diameter, true, counts);
+	}
+	
+	private BufferedImage render(ApolloniusGrain root, int width, int height, SgndAlgndRectangle viewport, double expand_diameter, boolean expand, QueryCounts counts) {
+		return render(width, height, (pixels, w, h, x_start, y_start, x_end, y_end) -> {
+			if (!coherent && !expand) {
+				for (int y = y_start; y < y_end; y++) {
+					for (int x = x_start; x < x_end; x++) {
+						pixels[y * w + x] = shade(root.getContainmentCircle(sample(viewport, x, y, w, h), false));
+					}
+				}
+				
+				return;
+			}
+			
+			ContainmentHint hint = new ContainmentHint();
+			hint.expand = expand;
+			hint.expand_diameter = expand_diameter;
+			if (expand) hint.added = new LayerStats.Tally();
+			
+			int side = mortonSide(x_end - x_start, y_end - y_start);
+			for (int code = 0; code < side * side; code++) {
+				int x = x_start + mortonDecode(code);
+				int y = y_start + mortonDecode(code >>> 1);
+				if (x >= x_end || y >= y_end) continue;
+				
+				pixels[y * w + x] = shade(root.getContainmentCircle(sample(viewport, x, y, w, h), hint));
+			}
+			
+			// Once per tile, rather than once per grain expanded.
+			if (expand) root.layers.merge(hint.added);
+			
+			if (counts != null) {
+				counts.queries.add(hint.queries);
+				counts.triangle_tests.add(hint.triangle_tests);
+			}
+		});
+	}
+	
+	// Renders a tree of circles in double-double mode, positioning and testing every sample in double-double arithmetic. See ApolloniusGrain.getContainmentCircle(DoubleDouble, DoubleDouble).
+	// For frames whose pixels are too small to be told apart as doubles. Pass a viewport in double-double mode as well.
+	public BufferedImage renderPrecise(ApolloniusGrain root, int width, int height, SgndAlgndRectangle viewport) {
+		return render(width, height, (pixels, w, h, x_start, y_start, x_end, y_end) -> {
+			for (int y = y_start; y < y_end; y++) {
+				DoubleDouble sample_y = viewport.preciseY(y / (double) h);
+				
+				for (int x = x_start; x < x_end; x++) {
+					pixels[y * w + x] = shade(root.getContainmentCircle(viewport.preciseX(x / (double) w), sample_y));
+				}
+			}
+		});
+	}
+	
+	public BufferedImage render(GrainStore store, int width, int height, SgndAlgndRectangle viewport) {
+		return render(width, height, (pixels, w, h, x_start, y_start, x_end, y_end) -> {
+			if (!coherent) {
+				for (int y = y_start; y < y_end; y++) {
+					for (int x = x_start; x < x_end; x++) {
+						Point sample = sample(viewport, x, y, w, h);
+						pixels[y * w + x] = store.shade(store.getContainmentCircle(sample.x, sample.y));
+					}
+				}
+				
+				return;
+			}
+			
+			int[] hint = store.newHint();
+			
+			int side = mortonSide(x_end - x_start, y_end - y_start);
+			for (int code = 0; code < side * side; code++) {
+				int x = x_start + mortonDecode(code);
+				int y = y_start + mortonDecode(code >>> 1);
+				if (x >= x_end || y >= y_end) continue;
+				
+				Point sample = sample(viewport, x, y, w, h);
+				pixels[y * w + x] = store.shade(store.getContainmentCircle(sample.x, sample.y, hint));
+			}
+		});
+	}
+	
+	// Renders a frame from a snapshot which may have been generated to a finer granularity than the frame's own pixel width. See GrainSnapshot.
+	// Snapshots are never changed, so several frames may be rendered from the same one at once, from different threads.
+	public BufferedImage render(GrainSnapshot snapshot, int width, int height, SgndAlgndRectangle viewport, double pixel_width) {
+		return render(width, height, (pixels, w, h, x_start, y_start, x_end, y_end) -> {
+			if (!coherent) {
+				for (int y = y_start; y < y_end; y++) {
+					for (int x = x_start; x < x_end; x++) {
+						Point sample = sample(viewport, x, y, w, h);
+						pixels[y * w + x] = snapshot.shade(snapshot.getContainmentCircle(sample.x, sample.y, pixel_width));
+					}
+				}
+				
+				return;
+			}
+			
+			int[] hint = snapshot.newHint();
+			
+			int side = mortonSide(x_end - x_start, y_end - y_start);
+			for (int code = 0; code < side * side; code++) {
+				int x = x_start + mortonDecode(code);
+				int y = y_start + mortonDecode(code >>> 1);
+				if (x >= x_end || y >= y_end) continue;
+				
+				Point sample = sample(viewport, x, y, w, h);
+				pixels[y * w + x] = snapshot.shade(snapshot.getContainmentCircle(sample.x, sample.y, pixel_width, hint));
+			}
+		});
+	}
+	
+	// Renders the frame the passed grid was last updated for. See GrainGrid.
+	public BufferedImage render(GrainGrid grid) {
+		return render(grid.width, grid.height, (pixels, w, h, x_start, y_start, x_end, y_end) -> {
+			for (int y = y_start; y < y_end; y++) {
+				for (int x = x_start; x < x_end; x++) {
+					pixels[y * w + x] = grid.shade(grid.getContainmentCircle(x, y));
+				}
+			}
+		});
+	}
+	
+	// Creates an image and has the passed shader fill it in, one tile at a time.
+	public BufferedImage render(int width, int height, TileShader shader) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		
+		int tiles_x = (width + tile_size - 1) / tile_size;
+		int tiles_y = (height + tile_size - 1) / tile_size;
+		
+		if (tiles_x * tiles_y > 0) {
+			pool.invoke(new TileRange(shader, pixels, width, height, tiles_x, 0, tiles_x * tiles_y));
+		}
+		
+		return image;
+	}
+	
+	// Sample positions must be calculated exactly as Apollonius.render() does, or the outputs could differ along circle boundaries.
+	static Point sample(SgndAlgndRectangle viewport, int x, int y, int width, int height) {
+		return viewport.bilerp(new Vector(
+			x / (double) width, y / (double) height
+		));
+	}
+	
+	// The x coordinate of sample() for each column, for renderers which position samples a column or row at a time. Computed as by SgndAlgndRectangle.bilerp(), so that each is bit-for-bit the same.
+	static double[] sampleColumns(SgndAlgndRectangle viewport, int width) {
+		double[] samples = new double[width];
+		for (int x = 0; x < width; x++) {
+			samples[x] = viewport.signedWidth() * (x / (double) width) + viewport.a.x;
+		}
+		
+		return samples;
+	}
+	
+	// The y coordinate of sample() for each row. See sampleColumns().
+	static double[] sampleRows(SgndAlgndRectangle viewport, int height) {
+		double[] samples = new double[height];
+		for (int y = 0; y < height; y++) {
+			samples[y] = viewport.signedHeight() * (y / (double) height) + viewport.a.y;
+		}
+		
+		return samples;
+	}
+	
+	// TYPE_INT_RGB discards the alpha channel, as setRGB() would.
+	static int shade(ApolloniusGrain grain) {
+		return grain == null ? 0 : grain.datum & 0xFFFFFF;
+	}
+	
+	// Side length of the smallest power-of-two square covering a tile of the passed size.
+	// A Morton walk over this square visits every pixel of the tile, along with some codes which fall outside of it and must be skipped.
+	static int mortonSide(int tile_width, int tile_height) {
+		int extent = Math.max(tile_width, tile_height);
+		return extent <= 1 ? 1 : Integer.highestOneBit(extent - 1) << 1;
+	}
+	
+	// Extracts the even bits of a Morton code, which make up one of the two interleaved coordinates.
+	static int mortonDecode(int code) {
+		code &= 0x55555555;
+		code = (code | (code >>> 1)) & 0x33333333;
+		code = (code | (code >>> 2)) & 0x0F0F0F0F;
+		code = (code | (code >>> 4)) & 0x00FF00FF;
+		code = (code | (code >>> 8)) & 0x0000FFFF;
+		return code;
+	}
+	
+	public void close() {
+		pool.shutdown();
+	}
+	
+	// Totals from the hints of coherent renders of ApolloniusGrain trees, for whichever renders they are passed to. Tiles rendered at once may add to the same counts.
+	static class QueryCounts {
+		final LongAdder queries = new LongAdder();
+		final LongAdder triangle_tests = new LongAdder();
+		
+		// Average number of dart tests per pixel.
+		public double getTriangleTestsPerQuery() {
+			long total_queries = queries.sum();
+			return total_queries == 0 ? 0 : (double) triangle_tests.sum() / total_queries;
+		}
+	}
+	
+	// Renders a contiguous range of tiles, numbered in row-major order. Ranges are split in half until each task holds one tile.
+	// Tasks are never serialized. ForkJoinTask is only Serializable by inheritance.
+	@SuppressWarnings("serial")
+	private class TileRange extends RecursiveAction {
+		transient TileShader shader;
+		transient int[] pixels;
+		int width;
+		int height;
+		int tiles_x;
+		
+		int first_tile;
+		int last_tile; // Exclusive.
+		
+		TileRange(TileShader shader, int[] pixels, int width, int height, int tiles_x, int first_tile, int last_tile) {
+			this.shader = shader;
+			this.pixels = pixels;
+			this.width = width;
+			this.height = height;
+			this.tiles_x = tiles_x;
+			
+			this.first_tile = first_tile;
+			this.last_tile = last_tile;
+		}
+		
+		protected void compute() {
+			if (last_tile - first_tile == 1) {
+				int x_start = first_tile % tiles_x * tile_size;
+				int y_start = first_tile / tiles_x * tile_size;
+				
+				shader.shadeTile(pixels, width, height, x_start, y_start, Math.min(x_start + tile_size, width), Math.min(y_start + tile_size, height));
+				return;
+			}
+			
+			int middle_tile = (first_tile + last_tile) >>> 1;
+			invokeAll(
+				new TileRange(shader, pixels, width, height, tiles_x, first_tile, middle_tile),
+				new TileRange(shader, pixels, width, height, tiles_x, middle_tile, last_tile)
+			);
+		}
+	}
+}
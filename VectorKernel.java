@@ -0,0 +1,72 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import ekobadd.geometry.*;
+
+// Tests a vector's worth of samples at once, using the widest SIMD registers the hardware has.
+// Performs the same arithmetic as Circle.contains() and PreparedTriangle.contains(), one operation at a time with no fused multiply-adds, so the results are identical to theirs.
+// Built on its own and only loaded when the jdk.incubator.vector module is present, so the rest of the program neither needs nor refers to it. See PacketRenderer.loadKernel().
+class VectorKernel implements PacketRenderer.Kernel {
+	static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	
+	final int packet_size;
+	
+	// Mask of the bits standing for the samples of one vector.
+	private final long lanes;
+	
+	public VectorKernel(int packet_size) {
+		if (packet_size % SPECIES.length() != 0)
+			throw new IllegalArgumentException(String.format("Packets must be made of whole vectors of %d samples.", SPECIES.length()));
+		
+		this.packet_size = packet_size;
+		this.lanes = (1L << SPECIES.length()) - 1;
+	}
+	
+	// Without at least two lanes per vector, the Vector API falls back on slow emulation.
+	static boolean isAccelerated() {
+		return SPECIES.length() >= 2;
+	}
+	
+	public long circleContains(double[] xs, double[] ys, long active, Circle circle) {
+		DoubleVector origin_x = DoubleVector.broadcast(SPECIES, circle.origin.x);
+		DoubleVector origin_y = DoubleVector.broadcast(SPECIES, circle.origin.y);
+		double sqr_radius = circle.radius*circle.radius;
+		
+		long within = 0;
+		for (int i = 0; i < packet_size; i += SPECIES.length()) {
+			if ((active >>> i & lanes) == 0) continue;
+			
+			DoubleVector dx = DoubleVector.fromArray(SPECIES, xs, i).sub(origin_x);
+			DoubleVector dy = DoubleVector.fromArray(SPECIES, ys, i).sub(origin_y);
+			
+			within |= dx.mul(dx).add(dy.mul(dy)).compare(VectorOperators.LT, sqr_radius).toLong() << i;
+		}
+		
+		return within & active;
+	}
+	
+	public long dartContains(double[] xs, double[] ys, long active, PreparedTriangle dart) {
+		long within = 0;
+		for (int i = 0; i < packet_size; i += SPECIES.length()) {
+			if ((active >>> i & lanes) == 0) continue;
+			
+			DoubleVector x = DoubleVector.fromArray(SPECIES, xs, i);
+			DoubleVector y = DoubleVector.fromArray(SPECIES, ys, i);
+			
+			VectorMask<Double> inside = edgeFunction(x, y, dart, 0, dart.a).compare(VectorOperators.GE, 0)
+				.and(edgeFunction(x, y, dart, 1, dart.b).compare(VectorOperators.GE, 0))
+				.and(edgeFunction(x, y, dart, 2, dart.c).compare(VectorOperators.GE, 0));
+			
+			within |= inside.toLong() << i;
+		}
+		
+		return within & active;
+	}
+	
+	// Evaluates the function of one edge of the dart, starting at the passed vertex. See PreparedTriangle.edgeNormalX().
+	private static DoubleVector edgeFunction(DoubleVector x, DoubleVector y, PreparedTriangle dart, int edge, Point vertex) {
+		return x.sub(vertex.x).mul(dart.edgeNormalX(edge)).add(y.sub(vertex.y).mul(dart.edgeNormalY(edge)));
+	}
+}
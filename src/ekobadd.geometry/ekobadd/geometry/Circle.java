@@ -4,18 +4,54 @@ public class Circle {
 	public Point origin;
 	public double radius;
 	
+	// Set only in double-double mode, in which case origin and radius hold the same values rounded to doubles. See contains(DoubleDouble, DoubleDouble).
+	public DoubleDouble precise_x;
+	public DoubleDouble precise_y;
+	public DoubleDouble precise_radius;
+	
 	public Circle(Point origin, double radius) {
 		this.origin = origin;
 		this.radius = radius;
 	}
 	
+	// Creates a circle in double-double mode.
+	public Circle(DoubleDouble x, DoubleDouble y, DoubleDouble radius) {
+		this(new Point(x.doubleValue(), y.doubleValue()), radius.doubleValue());
+		
+		this.precise_x = x;
+		this.precise_y = y;
+		this.precise_radius = radius;
+	}
+	
+	public boolean isPrecise() {
+		return precise_radius != null;
+	}
+	
+	// Returns a copy of this circle in double-double mode.
+	public Circle toPrecise() {
+		if (isPrecise()) return new Circle(precise_x, precise_y, precise_radius);
+		
+		return new Circle(DoubleDouble.valueOf(origin.x), DoubleDouble.valueOf(origin.y), DoubleDouble.valueOf(radius));
+	}
+	
 	public void scale(double factor) {
 		radius *= factor;
 		origin.scale(factor);
+		
+		if (isPrecise()) {
+			precise_x = precise_x.multiply(factor);
+			precise_y = precise_y.multiply(factor);
+			precise_radius = precise_radius.multiply(factor);
+		}
 	}
 	
 	public void translate(Vector offset) {
 		origin.translate(offset);
+		
+		if (isPrecise()) {
+			precise_x = precise_x.add(offset.x);
+			precise_y = precise_y.add(offset.y);
+		}
 	}
 	
 	public boolean contains(Point p) {
@@ -30,6 +66,33 @@ public class Circle {
 		return dx*dx + dy*dy < radius*radius;
 	}
 	
+	// Whether every point of the rectangle [left, right] x [bottom, top] passes contains(Point).
+	// Rounding in that test is allowed for with a margin of 2^-48 of the squared radius, so rectangles which only just fit may be reported as not fitting, but never the other way around.
+	public boolean containsAll(double left, double bottom, double right, double top) {
+		// The point of the rectangle furthest from the origin is one of its corners.
+		double dx = Math.max(Math.abs(left - origin.x), Math.abs(right - origin.x));
+		double dy = Math.max(Math.abs(bottom - origin.y), Math.abs(top - origin.y));
+		
+		return dx*dx + dy*dy < radius*radius * (1 - 0x1p-48);
+	}
+	
+	// Whether no point of the rectangle [left, right] x [bottom, top] passes contains(Point), with the same margin as containsAll().
+	public boolean containsNone(double left, double bottom, double right, double top) {
+		// Distances from the origin to the nearest point of the rectangle, which are zero along axes where the origin lies within it.
+		double dx = Math.max(Math.max(left - origin.x, origin.x - right), 0);
+		double dy = Math.max(Math.max(bottom - origin.y, origin.y - top), 0);
+		
+		return dx*dx + dy*dy >= radius*radius * (1 + 0x1p-48);
+	}
+	
+	// Same as contains(Point), carried out in double-double arithmetic. The circle must be in double-double mode.
+	public boolean contains(DoubleDouble px, DoubleDouble py) {
+		DoubleDouble dx = px.subtract(precise_x);
+		DoubleDouble dy = py.subtract(precise_y);
+		
+		return dx.square().add(dy.square()).compareTo(precise_radius.square()) < 0;
+	}
+	
 	public double diameter() {
 		return radius*2;
 	}
@@ -19,38 +19,44 @@ public final class LineSegment implements LineSegmentLineSegmentIntersection {
 	* @return true if the shapes intersect, false otherwise.
 	*/
 	public boolean intersects(SgndAlgndRectangle rect) {
-		// System.out.println(String.format("%s intersects %s", toString(), rect.toString()));
-		
+		return intersects(a.x, a.y, b.x, b.y, rect.left(), rect.bottom(), rect.right(), rect.top());
+	}
+	
+	/**
+	* Same as intersects(SgndAlgndRectangle), for the segment from (a_x, a_y) to (b_x, b_y) and the rectangle [left, right] x [bottom, top].
+	* Lets code which keeps its segments in arrays test them without allocating.
+	*/
+	public static boolean intersects(double a_x, double a_y, double b_x, double b_y, double left, double bottom, double right, double top) {
 		// First check if an endpoint is within the rectangle.
 		// This covers the case where the line is fully within the rectangle.
-		if (rect.contains(a)) return true;
+		if (left <= a_x && right >= a_x && bottom <= a_y && top >= a_y) return true;
 		
 		// Check collision with left side.
-		double left_t = (rect.left() - a.x) / (b.x - a.x);
+		double left_t = (left - a_x) / (b_x - a_x);
 		if (left_t >= 0 && left_t <= 1) {
-			double left_col_y = (b.y - a.y) * left_t + a.y;
-			if (left_col_y >= rect.bottom() && left_col_y <= rect.top()) return true; 
+			double left_col_y = (b_y - a_y) * left_t + a_y;
+			if (left_col_y >= bottom && left_col_y <= top) return true; 
 		}
 		
 		// Check collision with right side.
-		double right_t = (rect.right() - a.x) / (b.x - a.x);
+		double right_t = (right - a_x) / (b_x - a_x);
 		if (right_t >= 0 && right_t <= 1) {
-			double right_col_y = (b.y - a.y) * right_t + a.y;
-			if (right_col_y >= rect.bottom() && right_col_y <= rect.top()) return true;
+			double right_col_y = (b_y - a_y) * right_t + a_y;
+			if (right_col_y >= bottom && right_col_y <= top) return true;
 		}
 		
 		// Check collision with top side.
-		double top_t = (rect.top() - a.y) / (b.y - a.y);
+		double top_t = (top - a_y) / (b_y - a_y);
 		if (top_t >= 0 && top_t <= 1) {
-			double top_col_x = (b.x - a.x) * top_t + a.x;
-			if (top_col_x >= rect.left() && top_col_x <= rect.right()) return true; 
+			double top_col_x = (b_x - a_x) * top_t + a_x;
+			if (top_col_x >= left && top_col_x <= right) return true; 
 		}
 		
 		// Check collision with bottom side.
-		double bottom_t = (rect.bottom() - a.y) / (b.y - a.y);
+		double bottom_t = (bottom - a_y) / (b_y - a_y);
 		if (bottom_t >= 0 && bottom_t <= 1) {
-			double bottom_col_x = (b.x - a.x) * bottom_t + a.x;
-			if (bottom_col_x >= rect.left() && bottom_col_x <= rect.right()) return true; 
+			double bottom_col_x = (b_x - a_x) * bottom_t + a_x;
+			if (bottom_col_x >= left && bottom_col_x <= right) return true; 
 		}
 		
 		// At least one endpoint is outside the rect.
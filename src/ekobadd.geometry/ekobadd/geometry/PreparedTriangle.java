@@ -0,0 +1,272 @@
+package ekobadd.geometry;
+
+// Triangle which calculates its edge functions once, up front, so that testing whether it contains a point takes a few multiply-adds and no allocation.
+// Gives the same answers as Triangle.contains(), including for points on the edges, which are contained. Degenerate triangles contain no points.
+// Points and rectangles outside of the triangle's bounding box are rejected first, using only fields of the triangle itself.
+// If the vertices are modified directly, prepare() must be called afterwards.
+// In double-double mode, the vertices are also held to about 106 bits, and contains(DoubleDouble, DoubleDouble) and intersects() make use of them.
+public class PreparedTriangle extends Triangle {
+	// Each edge function is zero along one edge and positive on the side of the opposite vertex.
+	// For the edge from a to b, it is ab_x * (x - a.x) + ab_y * (y - a.y), and likewise for the others.
+	private double ab_x;
+	private double ab_y;
+	private double bc_x;
+	private double bc_y;
+	private double ca_x;
+	private double ca_y;
+	
+	// The bounding box of the vertices, widened by a margin far beyond the rounding error of the exact tests, so that nothing outside of it is ever contained or intersected.
+	// It is kept here, rather than read from the vertices, so that points and rectangles away from the triangle are rejected without loading the vertices at all.
+	private double min_x;
+	private double max_x;
+	private double min_y;
+	private double max_y;
+	
+	// Set only in double-double mode. The vertices as x, y pairs in the order a, b, c, and the edge vectors b - a, c - b and a - c likewise.
+	private DoubleDouble[] precise_vertices;
+	private DoubleDouble[] precise_edges;
+	private double precise_winding;
+	
+	public PreparedTriangle(Point a, Point b, Point c) {
+		super(a, b, c);
+		computeEdges();
+	}
+	
+	public PreparedTriangle(Triangle triangle) {
+		this(triangle.a, triangle.b, triangle.c);
+	}
+	
+	// Creates a triangle in double-double mode.
+	public PreparedTriangle(DoubleDouble a_x, DoubleDouble a_y, DoubleDouble b_x, DoubleDouble b_y, DoubleDouble c_x, DoubleDouble c_y) {
+		super(
+			new Point(a_x.doubleValue(), a_y.doubleValue()),
+			new Point(b_x.doubleValue(), b_y.doubleValue()),
+			new Point(c_x.doubleValue(), c_y.doubleValue())
+		);
+		computeEdges();
+		
+		this.precise_vertices = new DoubleDouble[] {a_x, a_y, b_x, b_y, c_x, c_y};
+		this.precise_edges = new DoubleDouble[6];
+		preparePrecise();
+	}
+	
+	// Recalculates the edge functions from the vertices.
+	public void prepare() {
+		computeEdges();
+	}
+	
+	// Does the work of prepare(). Being private, it is also safe to call from the constructors, before any subclass is initialized.
+	private void computeEdges() {
+		// Twice the signed area. Positive if the vertices are in counter-clockwise order.
+		double winding = Math.signum((b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x));
+		
+		// NaN fails every comparison, so a degenerate triangle contains nothing.
+		if (winding == 0) winding = Double.NaN;
+		
+		// The edge normals are the edge directions rotated a quarter turn, towards the inside.
+		ab_x = (a.y - b.y) * winding;
+		ab_y = (b.x - a.x) * winding;
+		bc_x = (b.y - c.y) * winding;
+		bc_y = (c.x - b.x) * winding;
+		ca_x = (c.y - a.y) * winding;
+		ca_y = (a.x - c.x) * winding;
+		
+		min_x = Math.min(a.x, Math.min(b.x, c.x));
+		max_x = Math.max(a.x, Math.max(b.x, c.x));
+		min_y = Math.min(a.y, Math.min(b.y, c.y));
+		max_y = Math.max(a.y, Math.max(b.y, c.y));
+		
+		// Rounding can only move an edge by a few units in the last place of the largest coordinate, which is no more than 2^-52 of it.
+		double margin = 0x1p-46 * Math.max(Math.max(-min_x, max_x), Math.max(-min_y, max_y));
+		min_x -= margin;
+		max_x += margin;
+		min_y -= margin;
+		max_y += margin;
+	}
+	
+	// Recalculates the edge vectors and winding from the double-double vertices.
+	private void preparePrecise() {
+		for (int edge = 0; edge < 3; edge++) {
+			int from = edge * 2, to = (edge + 1) % 3 * 2;
+			precise_edges[edge * 2    ] = precise_vertices[to    ].subtract(precise_vertices[from    ]);
+			precise_edges[edge * 2 + 1] = precise_vertices[to + 1].subtract(precise_vertices[from + 1]);
+		}
+		
+		// The cross product of ab and ca has the opposite sign to the signed area. As in prepare(), NaN makes a degenerate triangle contain nothing.
+		precise_winding = -cross(precise_edges[0], precise_edges[1], precise_edges[4], precise_edges[5]).signum();
+		if (precise_winding == 0) precise_winding = Double.NaN;
+	}
+	
+	public boolean isPrecise() {
+		return precise_vertices != null;
+	}
+	
+	@Override
+	public boolean contains(Point p) {
+		return contains(p.x, p.y);
+	}
+	
+	public boolean contains(double x, double y) {
+		if (x < min_x || x > max_x || y < min_y || y > max_y) return false;
+		
+		return ab_x * (x - a.x) + ab_y * (y - a.y) >= 0
+			&& bc_x * (x - b.x) + bc_y * (y - b.y) >= 0
+			&& ca_x * (x - c.x) + ca_y * (y - c.y) >= 0;
+	}
+	
+	// Same as contains(double, double), carried out in double-double arithmetic. The triangle must be in double-double mode.
+	public boolean contains(DoubleDouble x, DoubleDouble y) {
+		for (int edge = 0; edge < 3; edge++) {
+			DoubleDouble to_x = x.subtract(precise_vertices[edge * 2]);
+			DoubleDouble to_y = y.subtract(precise_vertices[edge * 2 + 1]);
+			
+			// Each edge's cross product with the point is positive on the inside, once corrected for the winding.
+			if (!(cross(precise_edges[edge * 2], precise_edges[edge * 2 + 1], to_x, to_y).signum() * precise_winding >= 0)) return false;
+		}
+		
+		return true;
+	}
+	
+	// Whether every point of the rectangle [left, right] x [bottom, top] passes contains(double, double).
+	// Rounding in that test is allowed for with a margin, so rectangles which only just fit may be reported as not fitting, but never the other way around.
+	public boolean containsAll(double left, double bottom, double right, double top) {
+		return edgeAbove(ab_x, ab_y, a, left, bottom, right, top)
+			&& edgeAbove(bc_x, bc_y, b, left, bottom, right, top)
+			&& edgeAbove(ca_x, ca_y, c, left, bottom, right, top);
+	}
+	
+	// Whether no point of the rectangle [left, right] x [bottom, top] passes contains(double, double), with the same margin as containsAll().
+	public boolean containsNone(double left, double bottom, double right, double top) {
+		if (right < min_x || left > max_x || top < min_y || bottom > max_y) return true;
+		
+		// As in prepare(), degenerate triangles contain nothing.
+		if (Double.isNaN(ab_x)) return true;
+		
+		return edgeBelow(ab_x, ab_y, a, left, bottom, right, top)
+			|| edgeBelow(bc_x, bc_y, b, left, bottom, right, top)
+			|| edgeBelow(ca_x, ca_y, c, left, bottom, right, top);
+	}
+	
+	// Whether the edge function is non-negative throughout the rectangle, even once rounded. The function is linear, so it is least at one of the corners.
+	private static boolean edgeAbove(double normal_x, double normal_y, Point start, double left, double bottom, double right, double top) {
+		double dx = (normal_x >= 0 ? left : right) - start.x;
+		double dy = (normal_y >= 0 ? bottom : top) - start.y;
+		
+		return normal_x * dx + normal_y * dy >= edgeRounding(normal_x, normal_y, start, left, bottom, right, top);
+	}
+	
+	// Whether the edge function is negative throughout the rectangle, even once rounded. It is greatest at the corner opposite to where it is least.
+	private static boolean edgeBelow(double normal_x, double normal_y, Point start, double left, double bottom, double right, double top) {
+		double dx = (normal_x >= 0 ? right : left) - start.x;
+		double dy = (normal_y >= 0 ? top : bottom) - start.y;
+		
+		return normal_x * dx + normal_y * dy < -edgeRounding(normal_x, normal_y, start, left, bottom, right, top);
+	}
+	
+	// Bound on the rounding error of the edge function anywhere within the rectangle, and of evaluating it at a corner, with plenty to spare.
+	// Each evaluation loses a few units in the last place of the larger of its two products.
+	private static double edgeRounding(double normal_x, double normal_y, Point start, double left, double bottom, double right, double top) {
+		return 0x1p-48 * (
+			Math.abs(normal_x) * Math.max(Math.abs(left - start.x), Math.abs(right - start.x))
+			+ Math.abs(normal_y) * Math.max(Math.abs(bottom - start.y), Math.abs(top - start.y))
+		);
+	}
+	
+	// Rectangles clear of the bounding box are rejected without reading the vertices. Otherwise, the test is that of Triangle.intersects().
+	// If both this triangle and the rectangle are in double-double mode, the test is carried out relative to the rectangle's first corner instead.
+	// Near the rectangle, the offsets are small enough to be represented accurately as doubles even where the absolute coordinates are not.
+	@Override
+	public boolean intersects(SgndAlgndRectangle rect) {
+		if (!isPrecise() || !rect.isPrecise()) {
+			if (rect.right() < min_x || rect.left() > max_x || rect.top() < min_y || rect.bottom() > max_y) return false;
+			
+			return super.intersects(rect);
+		}
+		
+		DoubleDouble origin_x = rect.preciseX(0);
+		DoubleDouble origin_y = rect.preciseY(0);
+		
+		Triangle relative = new Triangle(
+			new Point(precise_vertices[0].subtract(origin_x).doubleValue(), precise_vertices[1].subtract(origin_y).doubleValue()),
+			new Point(precise_vertices[2].subtract(origin_x).doubleValue(), precise_vertices[3].subtract(origin_y).doubleValue()),
+			new Point(precise_vertices[4].subtract(origin_x).doubleValue(), precise_vertices[5].subtract(origin_y).doubleValue())
+		);
+		
+		return relative.intersects(new SgndAlgndRectangle(new Point(0, 0), new Vector(rect.signedWidth(), rect.signedHeight())));
+	}
+	
+	// The z component of the cross product of two vectors.
+	private static DoubleDouble cross(DoubleDouble u_x, DoubleDouble u_y, DoubleDouble v_x, DoubleDouble v_y) {
+		return u_x.multiply(v_y).subtract(u_y.multiply(v_x));
+	}
+	
+	// Coefficients of the edge functions, for use by code which evaluates them itself. Edges are numbered 0 for ab, 1 for bc and 2 for ca.
+	// The function of an edge is edgeNormalX(edge) * (x - v.x) + edgeNormalY(edge) * (y - v.y), where v is the first vertex of the edge.
+	public double edgeNormalX(int edge) {
+		return switch (edge) {
+			case 0 -> ab_x;
+			case 1 -> bc_x;
+			case 2 -> ca_x;
+			default -> throw new IllegalArgumentException("Edges are numbered 0 through 2.");
+		};
+	}
+	
+	public double edgeNormalY(int edge) {
+		return switch (edge) {
+			case 0 -> ab_y;
+			case 1 -> bc_y;
+			case 2 -> ca_y;
+			default -> throw new IllegalArgumentException("Edges are numbered 0 through 2.");
+		};
+	}
+	
+	// The bounding box of the vertices, widened by the margin described at min_x. Nothing outside of it is ever contained or intersected.
+	public double minX() {
+		return min_x;
+	}
+	
+	public double maxX() {
+		return max_x;
+	}
+	
+	public double minY() {
+		return min_y;
+	}
+	
+	public double maxY() {
+		return max_y;
+	}
+	
+	public void translate(Vector offset) {
+		a.translate(offset);
+		b.translate(offset);
+		c.translate(offset);
+		
+		prepare();
+		
+		if (isPrecise()) {
+			for (int vertex = 0; vertex < 3; vertex++) {
+				precise_vertices[vertex * 2    ] = precise_vertices[vertex * 2    ].add(offset.x);
+				precise_vertices[vertex * 2 + 1] = precise_vertices[vertex * 2 + 1].add(offset.y);
+			}
+			
+			preparePrecise();
+		}
+	}
+	
+	public void scale(double factor) {
+		a.scale(factor);
+		b.scale(factor);
+		c.scale(factor);
+		
+		prepare();
+		
+		if (isPrecise()) {
+			for (int i = 0; i < 6; i++) {
+				precise_vertices[i] = precise_vertices[i].multiply(factor);
+			}
+			
+			preparePrecise();
+		}
+	}
+}
@@ -8,10 +8,18 @@ import java.awt.image.BufferedImage;
 // Signed, Axis-Aligned Rectangle.
 // Represents an axis-aligned Rectangle defined by two points.
 // Exchanging the x components of the points negates the signed width of the rectangle, likewise with the y components and signed height.
+// In double-double mode, the corners are also held to about 106 bits, so that a rectangle may be zoomed far past the point where its width is lost among the rounding errors of its corners.
+// Scaling and translation keep both sets of corners up to date. Modifying a and b directly does not.
 public class SgndAlgndRectangle {
 	public Point a;
 	public Point b;
 	
+	// Set only in double-double mode, in which case a and b hold the same corners rounded to doubles.
+	private DoubleDouble precise_ax;
+	private DoubleDouble precise_ay;
+	private DoubleDouble precise_bx;
+	private DoubleDouble precise_by;
+	
 	public SgndAlgndRectangle(Point a, Point b) {
 		this.a = a;
 		this.b = b;
@@ -22,6 +30,37 @@ public class SgndAlgndRectangle {
 		this.b = a.translated(size);
 	}
 	
+	// Creates a rectangle in double-double mode.
+	public SgndAlgndRectangle(DoubleDouble a_x, DoubleDouble a_y, DoubleDouble b_x, DoubleDouble b_y) {
+		this(new Point(a_x.doubleValue(), a_y.doubleValue()), new Point(b_x.doubleValue(), b_y.doubleValue()));
+		
+		this.precise_ax = a_x;
+		this.precise_ay = a_y;
+		this.precise_bx = b_x;
+		this.precise_by = b_y;
+	}
+	
+	// Creates a copy of the passed rectangle, in double-double mode if it is.
+	public SgndAlgndRectangle(SgndAlgndRectangle other) {
+		this(new Point(other.a.x, other.a.y), new Point(other.b.x, other.b.y));
+		
+		this.precise_ax = other.precise_ax;
+		this.precise_ay = other.precise_ay;
+		this.precise_bx = other.precise_bx;
+		this.precise_by = other.precise_by;
+	}
+	
+	public boolean isPrecise() {
+		return precise_ax != null;
+	}
+	
+	// Returns a copy of this rectangle in double-double mode.
+	public SgndAlgndRectangle toPrecise() {
+		if (isPrecise()) return new SgndAlgndRectangle(this);
+		
+		return new SgndAlgndRectangle(DoubleDouble.valueOf(a.x), DoubleDouble.valueOf(a.y), DoubleDouble.valueOf(b.x), DoubleDouble.valueOf(b.y));
+	}
+	
 	public double width() {
 		return Math.abs(signedWidth());
 	}
@@ -44,6 +83,20 @@ public class SgndAlgndRectangle {
 		);
 	}
 	
+	// The x component of bilerp(), in double-double arithmetic. In double-double mode, the result is accurate however small the rectangle.
+	public DoubleDouble preciseX(double t) {
+		if (!isPrecise()) return DoubleDouble.valueOf(a.x).add(DoubleDouble.product(signedWidth(), t));
+		
+		return precise_bx.subtract(precise_ax).multiply(t).add(precise_ax);
+	}
+	
+	// The y component of bilerp(), in double-double arithmetic.
+	public DoubleDouble preciseY(double t) {
+		if (!isPrecise()) return DoubleDouble.valueOf(a.y).add(DoubleDouble.product(signedHeight(), t));
+		
+		return precise_by.subtract(precise_ay).multiply(t).add(precise_ay);
+	}
+	
 	/** Determines whether the rectangle contains the given point. */
 	public boolean contains(Point p) {
 		return left() <= p.x && right() >= p.x && bottom() <= p.y && top() >= p.y;
@@ -60,6 +113,12 @@ public class SgndAlgndRectangle {
 	* @param scale The scale factor. Values greater than 1 grow the rectangle, values between 0 and 1 will shrink it. Negative values will invert it.
 	*/
 	public void scale(double scale) {
+		if (isPrecise()) {
+			DoubleDouble[] corners = preciseScaled(scale);
+			setPrecise(corners[0], corners[1], corners[2], corners[3]);
+			return;
+		}
+		
 		double half_delta_width  = signedWidth()  * (1 - scale) / 2;
 		double half_delta_height = signedHeight() * (1 - scale) / 2;
 		
@@ -73,6 +132,11 @@ public class SgndAlgndRectangle {
 	* @see #scale(double)
 	*/
 	public SgndAlgndRectangle scaled(double factor) {
+		if (isPrecise()) {
+			DoubleDouble[] corners = preciseScaled(1 / factor);
+			return new SgndAlgndRectangle(corners[0], corners[1], corners[2], corners[3]);
+		}
+		
 		double half_delta_width  = signedWidth()  * (1 - 1 / factor) / 2;
 		double half_delta_height = signedHeight() * (1 - 1 / factor) / 2;
 		
@@ -103,23 +167,53 @@ public class SgndAlgndRectangle {
 	}
 	
 	public void translate(Vector offset) {
+		if (isPrecise()) {
+			setPrecise(precise_ax.add(offset.x), precise_ay.add(offset.y), precise_bx.add(offset.x), precise_by.add(offset.y));
+			return;
+		}
+		
 		a = a.translated(offset);
 		b = b.translated(offset);
 	}
 	
 	public SgndAlgndRectangle translated(Vector offset) {
+		if (isPrecise()) return new SgndAlgndRectangle(precise_ax.add(offset.x), precise_ay.add(offset.y), precise_bx.add(offset.x), precise_by.add(offset.y));
+		
 		return new SgndAlgndRectangle(
 			a.translated(offset),
 			b.translated(offset)
 		);
 	}
 	
+	// In double-double mode, the width and height are found from the precise corners, and so remain accurate when they are far smaller than the corners' rounding errors.
 	public double signedWidth() {
-		return b.x - a.x;
+		return isPrecise() ? precise_bx.subtract(precise_ax).doubleValue() : b.x - a.x;
 	}
 	
 	public double signedHeight() {
-		return b.y - a.y;
+		return isPrecise() ? precise_by.subtract(precise_ay).doubleValue() : b.y - a.y;
+	}
+	
+	// The corners after scale(), in double-double mode. 1 - scale is not rounded to a double, so that no zoom is too deep to represent.
+	private DoubleDouble[] preciseScaled(double scale) {
+		DoubleDouble half_shrink = DoubleDouble.ONE.subtract(scale).multiply(0.5);
+		DoubleDouble half_delta_width  = precise_bx.subtract(precise_ax).multiply(half_shrink);
+		DoubleDouble half_delta_height = precise_by.subtract(precise_ay).multiply(half_shrink);
+		
+		return new DoubleDouble[] {
+			precise_ax.add(half_delta_width), precise_ay.add(half_delta_height),
+			precise_bx.subtract(half_delta_width), precise_by.subtract(half_delta_height)
+		};
+	}
+	
+	private void setPrecise(DoubleDouble a_x, DoubleDouble a_y, DoubleDouble b_x, DoubleDouble b_y) {
+		precise_ax = a_x;
+		precise_ay = a_y;
+		precise_bx = b_x;
+		precise_by = b_y;
+		
+		a = new Point(a_x.doubleValue(), a_y.doubleValue());
+		b = new Point(b_x.doubleValue(), b_y.doubleValue());
 	}
 	
 	public double signedAspectRatio() {
@@ -0,0 +1,76 @@
+package ekobadd.geometry.test;
+
+import java.util.Random;
+
+import ekobadd.geometry.*;
+import ekobadd.test.*;
+
+public class TestCircle extends TestSet {
+	@Test
+	public static void testRectInclusion() {
+		Circle circle = new Circle(new Point(1, 2), 2);
+		
+		assertEquals(circle.containsAll(0, 1, 2, 3), true);
+		assertEquals(circle.containsNone(0, 1, 2, 3), false);
+		
+		// The corners of the bounding square lie outside of the circle.
+		assertEquals(circle.containsAll(-1, 0, 3, 4), false);
+		assertEquals(circle.containsNone(-1, 0, 3, 4), false);
+		
+		// Within the bounding square, but beyond the circle.
+		assertEquals(circle.containsNone(2.6, 3.6, 3, 4), true);
+		assertEquals(circle.containsNone(4, 0, 5, 1), true);
+		assertEquals(circle.containsNone(-3, 2, -2, 3), true);
+		
+		// A rectangle touching the circle from outside only just misses, so it is not reported either way.
+		assertEquals(circle.containsNone(3, 1, 4, 3), false);
+		assertEquals(circle.containsAll(3, 1, 4, 3), false);
+	}
+	
+	@Test
+	public static void testRectInclusionNearEdge() {
+		Random random = new Random(25);
+		int num_all = 0;
+		int num_none = 0;
+		
+		for (int circle_i = 0; circle_i < 50; circle_i++) {
+			double radius = Math.scalb(1 + random.nextDouble(), random.nextInt(-30, 4));
+			Circle circle = new Circle(new Point(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5), radius);
+			
+			// Small squares centred just inside or outside of the circumference, down to the scale where only rounding tells them apart.
+			for (int rect_i = 0; rect_i < 200; rect_i++) {
+				double angle = random.nextDouble() * 2 * Math.PI;
+				double distance = radius * (1 + Math.scalb(random.nextDouble() - 0.5, -random.nextInt(0, 52)));
+				double half_size = radius * Math.scalb(random.nextDouble(), -random.nextInt(4, 60));
+				
+				double left = circle.origin.x + Math.cos(angle) * distance - half_size;
+				double bottom = circle.origin.y + Math.sin(angle) * distance - half_size;
+				double right = left + 2 * half_size;
+				double top = bottom + 2 * half_size;
+				
+				boolean all = circle.containsAll(left, bottom, right, top);
+				boolean none = circle.containsNone(left, bottom, right, top);
+				assertEquals(all && none, false);
+				
+				// The farthest corner and the nearest point are the extremes of the rectangle, so if they pass, every other point does too.
+				if (all) {
+					num_all++;
+					double farthest_x = Math.abs(left - circle.origin.x) > Math.abs(right - circle.origin.x) ? left : right;
+					double farthest_y = Math.abs(bottom - circle.origin.y) > Math.abs(top - circle.origin.y) ? bottom : top;
+					assertEquals(circle.contains(new Point(farthest_x, farthest_y)), true);
+				}
+				
+				if (none) {
+					num_none++;
+					double nearest_x = Math.min(Math.max(circle.origin.x, left), right);
+					double nearest_y = Math.min(Math.max(circle.origin.y, bottom), top);
+					assertEquals(circle.contains(new Point(nearest_x, nearest_y)), false);
+				}
+			}
+		}
+		
+		// Most squares are far enough from the circumference to be decided one way or the other.
+		assertEquals(num_all > 1000, true);
+		assertEquals(num_none > 1000, true);
+	}
+}
@@ -0,0 +1,103 @@
+package ekobadd.geometry.test;
+
+import ekobadd.geometry.*;
+import ekobadd.test.*;
+
+public class TestDoubleDouble extends TestSet {
+	@Test
+	public static void testSumKeepsSmallTerms() {
+		DoubleDouble sum = DoubleDouble.valueOf(1).add(1E-20);
+		
+		assertEquals(sum.hi, 1.0);
+		assertEquals(sum.lo, 1E-20);
+		assertEquals(sum.subtract(1).doubleValue(), 1E-20);
+	}
+	
+	@Test
+	public static void testProductIsExact() {
+		// (1 + 2^-30)^2 = 1 + 2^-29 + 2^-60, which needs 61 bits.
+		double x = 1 + Math.scalb(1.0, -30);
+		DoubleDouble square = DoubleDouble.product(x, x);
+		
+		assertEquals(square.hi, 1 + Math.scalb(1.0, -29));
+		assertEquals(square.lo, Math.scalb(1.0, -60));
+		assertEquals(DoubleDouble.valueOf(x).square(), square);
+	}
+	
+	@Test
+	public static void testDivision() {
+		DoubleDouble third = DoubleDouble.ONE.divide(3);
+		
+		assertEquals(Math.abs(third.multiply(3).subtract(1).doubleValue()) < 1E-31, true);
+		assertEquals(third.hi, 1.0 / 3);
+	}
+	
+	@Test
+	public static void testSquareRoot() {
+		DoubleDouble root = DoubleDouble.valueOf(2).sqrt();
+		
+		assertEquals(Math.abs(root.square().subtract(2).doubleValue()) < 1E-31, true);
+		assertEquals(root.hi, Math.sqrt(2));
+		assertEquals(DoubleDouble.ZERO.sqrt(), DoubleDouble.ZERO);
+		assertEquals(Double.isNaN(DoubleDouble.valueOf(-1).sqrt().doubleValue()), true);
+	}
+	
+	@Test
+	public static void testComparison() {
+		DoubleDouble one = DoubleDouble.ONE;
+		DoubleDouble above = one.add(1E-25);
+		DoubleDouble below = one.subtract(1E-25);
+		
+		assertEquals(above.compareTo(one) > 0, true);
+		assertEquals(below.compareTo(one) < 0, true);
+		assertEquals(one.compareTo(DoubleDouble.valueOf(1)), 0);
+		
+		assertEquals(above.subtract(one).signum(), 1);
+		assertEquals(below.subtract(one).signum(), -1);
+		assertEquals(one.subtract(one).signum(), 0);
+	}
+	
+	@Test
+	public static void testCircleContainsBeyondDoublePrecision() {
+		// A circle far smaller than the spacing between doubles at its position.
+		DoubleDouble x = DoubleDouble.valueOf(0.5);
+		Circle circle = new Circle(x.add(1E-25), DoubleDouble.valueOf(0.25), DoubleDouble.valueOf(1E-24));
+		
+		assertEquals(circle.contains(x.add(1E-25), DoubleDouble.valueOf(0.25)), true);
+		assertEquals(circle.contains(x.add(5E-25), DoubleDouble.valueOf(0.25)), true);
+		assertEquals(circle.contains(x.add(2E-24), DoubleDouble.valueOf(0.25)), false);
+		assertEquals(circle.contains(x, DoubleDouble.valueOf(0.25).add(1.5E-24)), false);
+	}
+	
+	@Test
+	public static void testTriangleContainsBeyondDoublePrecision() {
+		DoubleDouble x = DoubleDouble.valueOf(0.5);
+		DoubleDouble y = DoubleDouble.valueOf(0.25);
+		DoubleDouble size = DoubleDouble.valueOf(1E-24);
+		
+		PreparedTriangle triangle = new PreparedTriangle(x, y, x.add(size), y, x, y.add(size));
+		
+		assertEquals(triangle.contains(x.add(2E-25), y.add(2E-25)), true);
+		assertEquals(triangle.contains(x, y), true);
+		assertEquals(triangle.contains(x.add(6E-25), y.add(6E-25)), false);
+		assertEquals(triangle.contains(x.subtract(1E-26), y.add(2E-25)), false);
+	}
+	
+	@Test
+	public static void testRectangleZoomsBeyondDoublePrecision() {
+		SgndAlgndRectangle rect = new SgndAlgndRectangle(new Point(0.25, 0.5), new Point(1.25, 1.5)).toPrecise();
+		rect.zoom(1E20);
+		
+		assertEquals(Math.abs(rect.signedWidth() - 1E-20) < 1E-30, true);
+		assertEquals(rect.preciseX(0.5).doubleValue(), 0.75);
+		
+		// A triangle which lies just beyond the rectangle, and one which crosses it.
+		DoubleDouble left = rect.preciseX(0);
+		DoubleDouble bottom = rect.preciseY(0);
+		PreparedTriangle outside = new PreparedTriangle(left.subtract(3E-20), bottom, left.subtract(1E-20), bottom, left.subtract(2E-20), bottom.add(1E-20));
+		PreparedTriangle crossing = new PreparedTriangle(left.subtract(1E-20), bottom, left.add(1E-20), bottom, left, bottom.add(1E-20));
+		
+		assertEquals(outside.intersects(rect), false);
+		assertEquals(crossing.intersects(rect), true);
+	}
+}
@@ -3,6 +3,9 @@ package ekobadd.geometry.test;
 public class TestMain {
 	public static void main(String[] args) {
 		System.out.println(new TestTriangle().test().formatSummary(true));
+		System.out.println(new TestPreparedTriangle().test().formatSummary(true));
+		System.out.println(new TestCircle().test().formatSummary(true));
 		System.out.println(new TestLineSegment().test().formatSummary(true));
+		System.out.println(new TestDoubleDouble().test().formatSummary(true));
 	}
 }
\ No newline at end of file
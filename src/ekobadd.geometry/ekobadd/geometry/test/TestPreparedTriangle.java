@@ -0,0 +1,276 @@
+package ekobadd.geometry.test;
+
+import java.util.Random;
+
+import ekobadd.geometry.*;
+import ekobadd.test.*;
+
+public class TestPreparedTriangle extends TestSet {
+	@Test
+	public static void testPointInclusionWithUnitRightTri() {
+		PreparedTriangle unitRightTri = new PreparedTriangle(new Point(0, 0), new Point(1, 0), new Point(0, 1));
+		
+		assertEquals(unitRightTri.contains(0, 0), true);
+		assertEquals(unitRightTri.contains(0, 1), true);
+		assertEquals(unitRightTri.contains(1, 0), true);
+		assertEquals(unitRightTri.contains(0.2, 0.2), true);
+		assertEquals(unitRightTri.contains(0.5, 0.5), true);
+		
+		assertEquals(unitRightTri.contains(0.5, -1), false);
+		assertEquals(unitRightTri.contains(-1, 0.5), false);
+		assertEquals(unitRightTri.contains(1, 1), false);
+		
+		assertEquals(unitRightTri.contains(2, -1), false);
+		assertEquals(unitRightTri.contains(-1, 2), false);
+		assertEquals(unitRightTri.contains(-1, -1), false);
+	}
+	
+	@Test
+	public static void testPointInclusionWithOtherTris() {
+		PreparedTriangle otherTri1 = new PreparedTriangle(new Point(4, 3), new Point(2, 2), new Point(3, 4));
+		
+		assertEquals(otherTri1.contains(4, 3), true);
+		assertEquals(otherTri1.contains(2, 2), true);
+		assertEquals(otherTri1.contains(3, 4), true);
+		
+		assertEquals(otherTri1.contains(3, 3), true);
+		assertEquals(otherTri1.contains(3, 2.5), true);
+		assertEquals(otherTri1.contains(3.5, 3.5), true);
+		
+		assertEquals(otherTri1.contains(3, 2), false);
+		assertEquals(otherTri1.contains(4, 4), false);
+		assertEquals(otherTri1.contains(2, 3), false);
+		assertEquals(otherTri1.contains(2, 5), false);
+		assertEquals(otherTri1.contains(5, 3), false);
+		
+		PreparedTriangle otherTri2 = new PreparedTriangle(new Point(4, 3), new Point(1, 5), new Point(3, 4));
+		
+		assertEquals(otherTri2.contains(2, 4.5), true);
+		assertEquals(otherTri2.contains(3, 3.8), true);
+		
+		assertEquals(otherTri2.contains(3, 4.2), false);
+		assertEquals(otherTri2.contains(2, 4.2), false);
+		assertEquals(otherTri2.contains(4, 4), false);
+		
+		PreparedTriangle otherTri3 = new PreparedTriangle(new Point(-4, -3), new Point(-1, -5), new Point(0, -3));
+		
+		assertEquals(otherTri3.contains(-1, -4), true);
+		assertEquals(otherTri3.contains(-3, -3.5), true);
+		assertEquals(otherTri3.contains(0, -3), true);
+		
+		assertEquals(otherTri3.contains(0, -4), false);
+		assertEquals(otherTri3.contains(1, -0.5), false);
+		assertEquals(otherTri3.contains(-2, -2), false);
+	}
+	
+	@Test
+	public static void testPointInclusionAgreesWithTriangle() {
+		Random random = new Random(0);
+		
+		for (int tri_i = 0; tri_i < 100; tri_i++) {
+			Triangle tri = new Triangle(
+				new Point(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5),
+				new Point(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5),
+				new Point(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5)
+			);
+			PreparedTriangle prepared = new PreparedTriangle(tri);
+			
+			for (int point_i = 0; point_i < 100; point_i++) {
+				Point p = new Point(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5);
+				assertEquals(prepared.contains(p.x, p.y), tri.contains(p));
+			}
+		}
+	}
+	
+	@Test
+	public static void testRectIntersectionAgreesWithTriangle() {
+		Random random = new Random(0);
+		
+		for (int tri_i = 0; tri_i < 100; tri_i++) {
+			Triangle tri = new Triangle(
+				new Point(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5),
+				new Point(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5),
+				new Point(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5)
+			);
+			PreparedTriangle prepared = new PreparedTriangle(tri);
+			
+			// Mostly small rectangles, many of which lie clear of the triangle's bounding box.
+			for (int rect_i = 0; rect_i < 100; rect_i++) {
+				SgndAlgndRectangle rect = new SgndAlgndRectangle(
+					new Point(random.nextDouble() * 20 - 10, random.nextDouble() * 20 - 10),
+					new Vector(random.nextDouble() * 2 - 1, random.nextDouble() * 2 - 1)
+				);
+				assertEquals(prepared.intersects(rect), tri.intersects(rect));
+			}
+		}
+	}
+	
+	@Test
+	public static void testRectIntersectionAtBounds() {
+		PreparedTriangle tri = new PreparedTriangle(new Point(0, 0), new Point(1, 0), new Point(0, 1));
+		
+		// Touching the triangle's extremes counts as intersecting.
+		assertEquals(tri.intersects(new SgndAlgndRectangle(new Point(1, -1), new Point(2, 0))), true);
+		assertEquals(tri.intersects(new SgndAlgndRectangle(new Point(-1, 1), new Point(0, 2))), true);
+		
+		assertEquals(tri.intersects(new SgndAlgndRectangle(new Point(1.5, 0), new Point(2, 1))), false);
+		assertEquals(tri.intersects(new SgndAlgndRectangle(new Point(0, -2), new Point(1, -1))), false);
+		assertEquals(tri.intersects(new SgndAlgndRectangle(new Point(0.6, 0.6), new Point(1, 1))), false);
+		
+		// The bounds follow the vertices when the triangle is transformed.
+		tri.translate(new Vector(2, 3));
+		assertEquals(tri.intersects(new SgndAlgndRectangle(new Point(2.1, 3.1), new Point(2.2, 3.2))), true);
+		assertEquals(tri.intersects(new SgndAlgndRectangle(new Point(0.1, 0.1), new Point(0.2, 0.2))), false);
+	}
+	
+	@Test
+	public static void testRectInclusion() {
+		PreparedTriangle tri = new PreparedTriangle(new Point(0, 0), new Point(4, 0), new Point(0, 4));
+		
+		assertEquals(tri.containsAll(0.5, 0.5, 1.5, 1.5), true);
+		assertEquals(tri.containsNone(0.5, 0.5, 1.5, 1.5), false);
+		
+		// Straddling the hypotenuse.
+		assertEquals(tri.containsAll(1.5, 1.5, 2.5, 2.5), false);
+		assertEquals(tri.containsNone(1.5, 1.5, 2.5, 2.5), false);
+		
+		// Within the bounding box, but beyond the hypotenuse.
+		assertEquals(tri.containsAll(3, 3, 3.5, 3.5), false);
+		assertEquals(tri.containsNone(3, 3, 3.5, 3.5), true);
+		
+		assertEquals(tri.containsNone(-2, -2, -1, -1), true);
+		assertEquals(tri.containsNone(5, 0, 6, 1), true);
+		
+		// A rectangle touching an edge only just fits, so it is not reported either way.
+		assertEquals(tri.containsAll(0, 1, 1, 2), false);
+		assertEquals(tri.containsNone(-1, 1, 0, 2), false);
+		
+		PreparedTriangle line = new PreparedTriangle(new Point(0, 0), new Point(1, 1), new Point(2, 2));
+		assertEquals(line.containsNone(0, 0, 2, 2), true);
+	}
+	
+	@Test
+	public static void testRectInclusionAroundCorners() {
+		Random random = new Random(25);
+		int num_all = 0;
+		int num_none = 0;
+		
+		for (int tri_i = 0; tri_i < 200; tri_i++) {
+			// Down to slivers whose third vertex is barely off the line through the other two, wound either way.
+			Point a = new Point(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5);
+			Point b = new Point(random.nextDouble() * 10 - 5, random.nextDouble() * 10 - 5);
+			double along = random.nextDouble();
+			double off = Math.scalb(random.nextDouble() * 2 - 1, -random.nextInt(0, 40));
+			Point c = new Point(a.x + (b.x - a.x) * along - (b.y - a.y) * off, a.y + (b.y - a.y) * along + (b.x - a.x) * off);
+			
+			PreparedTriangle tri = new PreparedTriangle(a, b, c);
+			Point[] vertices = new Point[] {a, b, c};
+			
+			// Small squares around a vertex or a point on an edge, where the triangle's boundary passes through or close by.
+			for (int rect_i = 0; rect_i < 50; rect_i++) {
+				Point start = vertices[random.nextInt(3)];
+				Point end = vertices[random.nextInt(3)];
+				double t = random.nextBoolean() ? 0 : random.nextDouble();
+				double half_size = Math.scalb(random.nextDouble(), -random.nextInt(0, 50));
+				
+				double left = start.x + (end.x - start.x) * t + 4 * half_size * (random.nextDouble() * 2 - 1) - half_size;
+				double bottom = start.y + (end.y - start.y) * t + 4 * half_size * (random.nextDouble() * 2 - 1) - half_size;
+				double right = left + 2 * half_size;
+				double top = bottom + 2 * half_size;
+				
+				boolean all = tri.containsAll(left, bottom, right, top);
+				boolean none = tri.containsNone(left, bottom, right, top);
+				assertEquals(all && none, false);
+				
+				// A triangle is convex, so it holds the whole rectangle if it holds the corners.
+				if (all) {
+					num_all++;
+					assertEquals(tri.contains(left, bottom), true);
+					assertEquals(tri.contains(right, bottom), true);
+					assertEquals(tri.contains(left, top), true);
+					assertEquals(tri.contains(right, top), true);
+				}
+				
+				// The part of the triangle within the rectangle, if any, has its corners at the rectangle's corners, the triangle's vertices, and where the edges cross the sides.
+				// Each is clamped into the rectangle against rounding, since any point of the rectangle must fail the test.
+				if (none) {
+					num_none++;
+					assertEquals(tri.contains(left, bottom), false);
+					assertEquals(tri.contains(right, bottom), false);
+					assertEquals(tri.contains(left, top), false);
+					assertEquals(tri.contains(right, top), false);
+					
+					for (int edge = 0; edge < 3; edge++) {
+						Point from = vertices[edge];
+						Point to = vertices[(edge + 1) % 3];
+						
+						assertEquals(tri.contains(clamp(from.x, left, right), clamp(from.y, bottom, top)), false);
+						
+						for (double side_x : new double[] {left, right}) {
+							double u = (side_x - from.x) / (to.x - from.x);
+							if (u >= 0 && u <= 1) assertEquals(tri.contains(side_x, clamp(from.y + (to.y - from.y) * u, bottom, top)), false);
+						}
+						
+						for (double side_y : new double[] {bottom, top}) {
+							double u = (side_y - from.y) / (to.y - from.y);
+							if (u >= 0 && u <= 1) assertEquals(tri.contains(clamp(from.x + (to.x - from.x) * u, left, right), side_y), false);
+						}
+					}
+				}
+			}
+		}
+		
+		// Most squares are far enough from the boundary to be decided one way or the other.
+		assertEquals(num_all > 500, true);
+		assertEquals(num_none > 500, true);
+	}
+	
+	private static double clamp(double value, double low, double high) {
+		return Math.min(Math.max(value, low), high);
+	}
+	
+	@Test
+	public static void testPointInclusionAfterTransform() {
+		PreparedTriangle tri = new PreparedTriangle(new Point(0, 0), new Point(1, 0), new Point(0, 1));
+		tri.translate(new Vector(2, 3));
+		tri.scale(2);
+		
+		// Now (4, 6), (6, 6), (4, 8).
+		assertEquals(tri.contains(4.5, 6.5), true);
+		assertEquals(tri.contains(5, 7), true);
+		assertEquals(tri.contains(0.2, 0.2), false);
+		assertEquals(tri.contains(5.5, 7.5), false);
+		
+		// Moving the vertices directly requires preparing again.
+		tri.a.x = 8;
+		tri.prepare();
+		
+		assertEquals(tri.contains(6.5, 6.5), true);
+		assertEquals(tri.contains(4.5, 6.5), false);
+	}
+	
+	@Test
+	public static void testEdgeFunctions() {
+		PreparedTriangle tri = new PreparedTriangle(new Point(4, 3), new Point(2, 2), new Point(3, 4));
+		Point[] starts = new Point[] {tri.a, tri.b, tri.c};
+		
+		// Zero at both ends of each edge, and positive at the opposite vertex.
+		for (int edge = 0; edge < 3; edge++) {
+			Point start = starts[edge];
+			Point end = starts[(edge + 1) % 3];
+			Point opposite = starts[(edge + 2) % 3];
+			
+			assertEquals(tri.edgeNormalX(edge) * (end.x - start.x) + tri.edgeNormalY(edge) * (end.y - start.y), 0.0);
+			assertEquals(tri.edgeNormalX(edge) * (opposite.x - start.x) + tri.edgeNormalY(edge) * (opposite.y - start.y) > 0, true);
+		}
+	}
+	
+	@Test
+	public static void testDegenerateTriContainsNothing() {
+		PreparedTriangle line = new PreparedTriangle(new Point(0, 0), new Point(1, 1), new Point(2, 2));
+		
+		assertEquals(line.contains(0, 0), false);
+		assertEquals(line.contains(1, 1), false);
+		assertEquals(line.contains(1, 0), false);
+	}
+}